@@ -0,0 +1,48 @@
+package dev.slethware.apigateway.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.slethware.apigateway.config.RedisConfig;
+import dev.slethware.apigateway.dto.request.NotificationRequest;
+import org.springframework.amqp.support.converter.DefaultJackson2JavaTypeMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {}
+
+    // Same mapper and converter setup as RabbitMQConfig, plus trusting our package so messages can be read back
+    static Jackson2JsonMessageConverter messageConverter() {
+        ObjectMapper mapper = new RedisConfig().redisObjectMapper();
+        Jackson2JsonMessageConverter converter = new Jackson2JsonMessageConverter(mapper);
+        DefaultJackson2JavaTypeMapper typeMapper = new DefaultJackson2JavaTypeMapper();
+        typeMapper.setTrustedPackages("dev.slethware.apigateway.queue");
+        converter.setJavaTypeMapper(typeMapper);
+        return converter;
+    }
+
+    // A typical push request: a handful of template variables and a little metadata
+    static NotificationRequest pushRequest() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("name", "Ada Lovelace");
+        variables.put("order_id", "ORD-20240611-0042");
+        variables.put("amount", 129.99);
+        variables.put("link", "https://example.com/orders/ORD-20240611-0042");
+
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("source", "checkout");
+        metadata.put("campaign", "summer-sale");
+
+        NotificationRequest request = new NotificationRequest();
+        request.setNotificationType(NotificationRequest.NotificationType.PUSH);
+        request.setUserId(UUID.fromString("3f1c9c7e-8a4b-4e0f-9d2a-5b6c7d8e9f01"));
+        request.setTemplateCode("order_confirmation");
+        request.setVariables(variables);
+        request.setPriority(1);
+        request.setMetadata(metadata);
+        return request;
+    }
+}
@@ -0,0 +1,30 @@
+package dev.slethware.apigateway.benchmarks;
+
+import dev.slethware.apigateway.service.IdempotencyService;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Idempotency keys in a map instead of Redis
+class InMemoryIdempotencyService extends IdempotencyService {
+
+    private final Map<String, String> reservations = new ConcurrentHashMap<>();
+
+    InMemoryIdempotencyService() {
+        super(null);
+    }
+
+    @Override
+    public String reserve(String requestId, String notificationId) {
+        return reservations.putIfAbsent(requestId, notificationId);
+    }
+
+    @Override
+    public void release(String requestId, String notificationId) {
+        reservations.remove(requestId, notificationId);
+    }
+
+    void clear() {
+        reservations.clear();
+    }
+}
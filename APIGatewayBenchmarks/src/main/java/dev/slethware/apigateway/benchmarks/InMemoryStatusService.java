@@ -0,0 +1,53 @@
+package dev.slethware.apigateway.benchmarks;
+
+import dev.slethware.apigateway.dto.response.StatusResponse;
+import dev.slethware.apigateway.exception.ResourceNotFoundException;
+import dev.slethware.apigateway.service.StatusService;
+import dev.slethware.apigateway.util.StatusCodec;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps statuses in the same encoded form the Redis scripts receive, so codec cost is still measured
+class InMemoryStatusService extends StatusService {
+
+    private static final long STATUS_TTL_MILLIS = 86_400_000L;
+
+    private final Map<String, String[]> statuses = new ConcurrentHashMap<>();
+
+    InMemoryStatusService() {
+        super(null, Duration.ofMillis(5), 500);
+    }
+
+    @Override
+    public StatusResponse getStatus(String notificationId) {
+        String[] encoded = statuses.get(notificationId);
+        if (encoded == null) {
+            throw new ResourceNotFoundException("Notification status not found");
+        }
+        try {
+            return StatusCodec.decode(notificationId, Arrays.asList(encoded[0], encoded[1], encoded[2]));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void storeStatus(String notificationId, String status, String error) {
+        statuses.put(notificationId, StatusCodec.encode(status, System.currentTimeMillis(), error, STATUS_TTL_MILLIS));
+    }
+
+    @Override
+    public void advanceAccepted(String notificationId, String status, String error) {
+        statuses.computeIfPresent(notificationId, (id, current) -> STATUS_ACCEPTED.equals(current[0])
+                ? StatusCodec.encode(status, System.currentTimeMillis(), error, STATUS_TTL_MILLIS)
+                : current);
+    }
+
+    void clear() {
+        statuses.clear();
+    }
+}
@@ -0,0 +1,37 @@
+package dev.slethware.apigateway.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.slethware.apigateway.dto.NotificationProfile;
+import dev.slethware.apigateway.dto.UserContact;
+import dev.slethware.apigateway.dto.UserPreferences;
+import dev.slethware.apigateway.service.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// Every user resolves to the same profile, as if it were always in the near cache
+class InMemoryUserService extends UserService {
+
+    private final NotificationProfile profile;
+
+    InMemoryUserService() {
+        super(null, null, new ObjectMapper(), new RedisMessageListenerContainer(), new SimpleMeterRegistry(),
+                "http://localhost", 1, Duration.ofMinutes(5), "user:cache:invalidate",
+                Duration.ofSeconds(2), Duration.ofMillis(500));
+
+        UserContact contact = new UserContact();
+        contact.setEmail("bench@example.com");
+        contact.setPushToken("bench-push-token");
+        this.profile = new NotificationProfile(new UserPreferences(), contact);
+    }
+
+    @Override
+    public NotificationProfile getNotificationProfile(UUID userId, String correlationId,
+                                                      Consumer<UserPreferences> preferenceCheck) {
+        preferenceCheck.accept(profile.getPreferences());
+        return profile;
+    }
+}
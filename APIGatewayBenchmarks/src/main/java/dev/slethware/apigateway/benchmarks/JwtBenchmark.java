@@ -0,0 +1,69 @@
+package dev.slethware.apigateway.benchmarks;
+
+import dev.slethware.apigateway.security.JwtTokenProvider;
+import dev.slethware.apigateway.security.UserPrincipal;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// JwtTokenProvider.authenticate, served from the claims cache and with a full signature check
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtBenchmark {
+
+    private JwtTokenProvider cachingProvider;
+    private JwtTokenProvider verifyingProvider;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        byte[] keyBytes = new byte[32];
+        new SecureRandom().nextBytes(keyBytes);
+        String secret = Base64.getEncoder().encodeToString(keyBytes);
+
+        token = Jwts.builder()
+                .setSubject("bench@example.com")
+                .claim("user_id", UUID.randomUUID().toString())
+                .claim("email", "bench@example.com")
+                .setIssuedAt(new Date())
+                .setExpiration(new Date(System.currentTimeMillis() + Duration.ofHours(1).toMillis()))
+                .signWith(Keys.hmacShaKeyFor(keyBytes), SignatureAlgorithm.HS256)
+                .compact();
+
+        cachingProvider = new JwtTokenProvider(secret, 10_000, Duration.ofMinutes(10), new SimpleMeterRegistry());
+        // A zero TTL means nothing is ever served from the cache, so every call verifies the signature
+        verifyingProvider = new JwtTokenProvider(secret, 10_000, Duration.ZERO, new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public UserPrincipal authenticateCached() {
+        return cachingProvider.authenticate(token);
+    }
+
+    @Benchmark
+    public UserPrincipal authenticateUncached() {
+        return verifyingProvider.authenticate(token);
+    }
+}
@@ -0,0 +1,88 @@
+package dev.slethware.apigateway.benchmarks;
+
+import dev.slethware.apigateway.dto.UserPreferences;
+import dev.slethware.apigateway.queue.NotificationMessage;
+import dev.slethware.apigateway.util.NotificationMessageConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// NotificationMessage through the message converters, as published by the gateway and read by the workers:
+// JSON (email, and push with rabbitmq.push.wire-format=json) and the binary push format
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageConverterBenchmark {
+
+    private Jackson2JsonMessageConverter converter;
+    private NotificationMessage notificationMessage;
+    private Message serialized;
+    private NotificationMessageConverter binaryConverter;
+    private Message serializedBinary;
+
+    @Setup
+    public void setUp() {
+        converter = BenchmarkFixtures.messageConverter();
+        SerializingQueuePublisher publisher = new SerializingQueuePublisher(converter);
+
+        var request = BenchmarkFixtures.pushRequest();
+        notificationMessage = NotificationMessage.builder()
+                .notificationId(UUID.randomUUID().toString())
+                .requestId(UUID.randomUUID().toString())
+                .userId(request.getUserId().toString())
+                .notificationType(request.getNotificationType().name())
+                .templateCode(request.getTemplateCode())
+                .variables(request.getVariables())
+                .priority(request.getPriority())
+                .metadata(request.getMetadata())
+                .userPreferences(new UserPreferences())
+                .correlationId(UUID.randomUUID().toString())
+                .build();
+
+        publisher.publishNotification(notificationMessage);
+        serialized = publisher.last();
+
+        binaryConverter = new NotificationMessageConverter(converter, true);
+        SerializingQueuePublisher binaryPublisher = new SerializingQueuePublisher(binaryConverter);
+        binaryPublisher.publishNotification(notificationMessage);
+        serializedBinary = binaryPublisher.last();
+        System.out.printf("%nBody size: JSON %d bytes, binary %d bytes%n",
+                serialized.getBody().length, serializedBinary.getBody().length);
+    }
+
+    @Benchmark
+    public Message serialize() {
+        return converter.toMessage(notificationMessage, new MessageProperties());
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return converter.fromMessage(serialized);
+    }
+
+    @Benchmark
+    public Message serializeBinary() {
+        return binaryConverter.toMessage(notificationMessage, new MessageProperties());
+    }
+
+    @Benchmark
+    public Object deserializeBinary() {
+        return binaryConverter.fromMessage(serializedBinary);
+    }
+}
@@ -0,0 +1,79 @@
+package dev.slethware.apigateway.benchmarks;
+
+import dev.slethware.apigateway.dto.request.NotificationRequest;
+import dev.slethware.apigateway.dto.response.NotificationResponse;
+import dev.slethware.apigateway.service.NotificationService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// NotificationService.sendNotification with Redis, RabbitMQ and the User Service replaced by in-memory stand-ins
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendNotificationBenchmark {
+
+    private InMemoryIdempotencyService idempotencyService;
+    private InMemoryStatusService statusService;
+    private InMemoryUserService userService;
+    private NotificationService notificationService;
+
+    @State(Scope.Thread)
+    public static class Requests {
+        NotificationRequest withoutRequestId;
+        NotificationRequest withRequestId;
+        long sequence;
+
+        @Setup
+        public void setUp() {
+            withoutRequestId = BenchmarkFixtures.pushRequest();
+            withRequestId = BenchmarkFixtures.pushRequest();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        idempotencyService = new InMemoryIdempotencyService();
+        statusService = new InMemoryStatusService();
+        userService = new InMemoryUserService();
+        SerializingQueuePublisher queuePublisher = new SerializingQueuePublisher(BenchmarkFixtures.messageConverter());
+        notificationService = new NotificationService(idempotencyService, userService, queuePublisher, statusService);
+    }
+
+    // Keeps the stand-ins from growing for the whole run
+    @Setup(Level.Iteration)
+    public void clearState() {
+        idempotencyService.clear();
+        statusService.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        userService.shutdown();
+    }
+
+    @Benchmark
+    public NotificationResponse sendWithoutRequestId(Requests requests) {
+        return notificationService.sendNotification(requests.withoutRequestId);
+    }
+
+    @Benchmark
+    public NotificationResponse sendWithRequestId(Requests requests) {
+        requests.withRequestId.setRequestId(Thread.currentThread().threadId() + "-" + requests.sequence++);
+        return notificationService.sendNotification(requests.withRequestId);
+    }
+}
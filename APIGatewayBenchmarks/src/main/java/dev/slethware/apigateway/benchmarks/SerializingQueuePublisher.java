@@ -0,0 +1,34 @@
+package dev.slethware.apigateway.benchmarks;
+
+import dev.slethware.apigateway.queue.NotificationMessage;
+import dev.slethware.apigateway.service.NotificationOutbox;
+import dev.slethware.apigateway.service.QueuePublisher;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.util.unit.DataSize;
+
+// Stops where the broker would begin: the message is converted to bytes exactly as RabbitTemplate would, then dropped
+class SerializingQueuePublisher extends QueuePublisher {
+
+    private final MessageConverter messageConverter;
+    private volatile Message last;
+
+    SerializingQueuePublisher(MessageConverter messageConverter) {
+        // A disabled outbox: nothing is ever spooled, since the overridden publish never fails
+        super(null, null, new NotificationOutbox(null, null, false, "", DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), false));
+        this.messageConverter = messageConverter;
+    }
+
+    @Override
+    public void publishNotification(NotificationMessage message) {
+        MessageProperties properties = new MessageProperties();
+        properties.setCorrelationId(message.getCorrelationId());
+        properties.setHeader("request_id", message.getRequestId());
+        last = messageConverter.toMessage(message, properties);
+    }
+
+    Message last() {
+        return last;
+    }
+}
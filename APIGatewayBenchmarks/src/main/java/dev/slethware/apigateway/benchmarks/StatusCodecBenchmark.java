@@ -0,0 +1,58 @@
+package dev.slethware.apigateway.benchmarks;
+
+import dev.slethware.apigateway.dto.response.StatusResponse;
+import dev.slethware.apigateway.util.StatusCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Status round trip: the hash layout the Java services write, and the legacy JSON the email service still writes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatusCodecBenchmark {
+
+    private String notificationId;
+    private List<String> hashReply;
+    private List<String> legacyReply;
+
+    @Setup
+    public void setUp() {
+        notificationId = UUID.randomUUID().toString();
+        String[] encoded = StatusCodec.encode("delivered", System.currentTimeMillis(), null, 86_400_000L);
+        hashReply = Arrays.asList(encoded[0], encoded[1], null);
+        legacyReply = List.of("{\"notification_id\":\"" + notificationId + "\",\"status\":\"delivered\","
+                + "\"timestamp\":\"2024-06-11T10:15:30.123Z\",\"error\":null}");
+    }
+
+    @Benchmark
+    public String[] encode() {
+        return StatusCodec.encode("delivered", System.currentTimeMillis(), null, 86_400_000L);
+    }
+
+    @Benchmark
+    public StatusResponse decodeHash() throws IOException {
+        return StatusCodec.decode(notificationId, hashReply);
+    }
+
+    @Benchmark
+    public StatusResponse decodeLegacyJson() throws IOException {
+        return StatusCodec.decode(notificationId, legacyReply);
+    }
+}
@@ -1,6 +1,9 @@
 package dev.slethware.apigateway.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.slethware.apigateway.service.PayloadStore;
+import dev.slethware.apigateway.util.ClaimCheckMessageConverter;
+import dev.slethware.apigateway.util.NotificationMessageConverter;
 import org.springframework.amqp.core.*;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
@@ -8,13 +11,19 @@ import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Configuration
 public class RabbitMQConfig {
 
+    // The sharded exchange hashes on this header rather than the routing key; QueuePublisher sets it to user_id
+    public static final String SHARD_HASH_HEADER = "user_id";
+
     @Value("${rabbitmq.exchange}")
     private String exchangeName;
 
@@ -24,6 +33,12 @@ public class RabbitMQConfig {
     @Value("${rabbitmq.queues.push}")
     private String pushQueueName;
 
+    @Value("${rabbitmq.queues.push-high}")
+    private String pushHighQueueName;
+
+    @Value("${rabbitmq.queues.push-bulk}")
+    private String pushBulkQueueName;
+
     @Value("${rabbitmq.queues.failed}")
     private String failedQueueName;
 
@@ -33,9 +48,33 @@ public class RabbitMQConfig {
     @Value("${rabbitmq.routing-keys.push}")
     private String pushRoutingKey;
 
+    @Value("${rabbitmq.routing-keys.push-high}")
+    private String pushHighRoutingKey;
+
+    @Value("${rabbitmq.routing-keys.push-bulk}")
+    private String pushBulkRoutingKey;
+
     @Value("${rabbitmq.routing-keys.failed}")
     private String failedRoutingKey;
 
+    @Value("${rabbitmq.routing-keys.push-sharded}")
+    private String pushShardedRoutingKey;
+
+    @Value("${rabbitmq.push.shards}")
+    private int pushShards;
+
+    @Value("${rabbitmq.push.shard-exchange}")
+    private String pushShardExchangeName;
+
+    @Value("${rabbitmq.push.shard-queue-prefix}")
+    private String pushShardQueuePrefix;
+
+    @Value("${rabbitmq.push.wire-format}")
+    private String pushWireFormat;
+
+    @Value("${rabbitmq.claim-check.threshold}")
+    private DataSize claimCheckThreshold;
+
     @Bean
     public DirectExchange exchange() {
         return new DirectExchange(exchangeName);
@@ -67,6 +106,48 @@ public class RabbitMQConfig {
                 .build();
     }
 
+    // Priority lanes for push: same arguments as push.queue, which stays the normal lane
+    @Bean
+    public Queue pushHighQueue() {
+        return pushLaneQueue(pushHighQueueName);
+    }
+
+    @Bean
+    public Queue pushBulkQueue() {
+        return pushLaneQueue(pushBulkQueueName);
+    }
+
+    // Sharded normal push lane, declared the same way by the push service:
+    // push.sharded spreads messages over push.queue.shard.0..N-1 by a consistent hash of user_id
+    @Bean
+    public Declarables pushShards(DirectExchange exchange) {
+        List<Declarable> declarables = new ArrayList<>();
+        if (pushShards <= 0) {
+            return new Declarables(declarables);
+        }
+
+        CustomExchange shardExchange = new CustomExchange(pushShardExchangeName, "x-consistent-hash", true, false,
+                Map.of("hash-header", SHARD_HASH_HEADER));
+        declarables.add(shardExchange);
+        declarables.add(BindingBuilder.bind(shardExchange).to(exchange).with(pushShardedRoutingKey));
+
+        for (int shard = 0; shard < pushShards; shard++) {
+            Map<String, Object> args = new HashMap<>();
+            args.put("x-dead-letter-exchange", exchangeName);
+            args.put("x-dead-letter-routing-key", failedRoutingKey);
+            args.put("x-message-ttl", 3600000);
+            args.put("x-single-active-consumer", true);
+
+            Queue queue = QueueBuilder.durable(pushShardQueuePrefix + shard)
+                    .withArguments(args)
+                    .build();
+            declarables.add(queue);
+            // The binding key is the shard's weight on the hash ring
+            declarables.add(BindingBuilder.bind(queue).to(shardExchange).with("1").noargs());
+        }
+        return new Declarables(declarables);
+    }
+
     @Bean
     public Queue failedQueue() {
 
@@ -83,6 +164,16 @@ public class RabbitMQConfig {
         return BindingBuilder.bind(pushQueue).to(exchange).with(pushRoutingKey);
     }
 
+    @Bean
+    public Binding pushHighBinding(Queue pushHighQueue, DirectExchange exchange) {
+        return BindingBuilder.bind(pushHighQueue).to(exchange).with(pushHighRoutingKey);
+    }
+
+    @Bean
+    public Binding pushBulkBinding(Queue pushBulkQueue, DirectExchange exchange) {
+        return BindingBuilder.bind(pushBulkQueue).to(exchange).with(pushBulkRoutingKey);
+    }
+
     @Bean
     public Binding failedBinding(Queue failedQueue, DirectExchange exchange) {
         return BindingBuilder.bind(failedQueue).to(exchange).with(failedRoutingKey);
@@ -94,10 +185,32 @@ public class RabbitMQConfig {
         return new Jackson2JsonMessageConverter(redisObjectMapper);
     }
 
+    // Push messages go out in the binary format unless rabbitmq.push.wire-format=json; email is always JSON
+    @Bean
+    public NotificationMessageConverter notificationMessageConverter(Jackson2JsonMessageConverter producerJackson2MessageConverter) {
+        return new NotificationMessageConverter(producerJackson2MessageConverter, "binary".equalsIgnoreCase(pushWireFormat));
+    }
+
     @Bean
-    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory, Jackson2JsonMessageConverter producerJackson2MessageConverter) {
+    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory,
+                                         NotificationMessageConverter notificationMessageConverter,
+                                         PayloadStore payloadStore) {
         RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
-        rabbitTemplate.setMessageConverter(producerJackson2MessageConverter);
+        rabbitTemplate.setMessageConverter(new ClaimCheckMessageConverter(
+                notificationMessageConverter, payloadStore, claimCheckThreshold.toBytes()));
+        // Unroutable messages come back to us instead of being dropped silently
+        rabbitTemplate.setMandatory(true);
         return rabbitTemplate;
     }
-}
\ No newline at end of file
+
+    private Queue pushLaneQueue(String name) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("x-dead-letter-exchange", exchangeName);
+        args.put("x-dead-letter-routing-key", failedRoutingKey);
+        args.put("x-message-ttl", 3600000);
+
+        return QueueBuilder.durable(name)
+                .withArguments(args)
+                .build();
+    }
+}
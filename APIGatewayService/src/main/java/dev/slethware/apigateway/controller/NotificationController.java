@@ -1,7 +1,9 @@
 package dev.slethware.apigateway.controller;
 
+import dev.slethware.apigateway.dto.request.BatchNotificationRequest;
 import dev.slethware.apigateway.dto.request.NotificationRequest;
 import dev.slethware.apigateway.dto.response.ApiResponse;
+import dev.slethware.apigateway.dto.response.BatchNotificationResponse;
 import dev.slethware.apigateway.dto.response.NotificationResponse;
 import dev.slethware.apigateway.dto.response.StatusResponse;
 import dev.slethware.apigateway.security.UserPrincipal;
@@ -33,6 +35,17 @@ public class NotificationController {
         return ResponseEntity.status(HttpStatus.OK).body(ApiResponse.success(response, "Notification queued successfully"));
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<ApiResponse<BatchNotificationResponse>> queueNotificationBatch(
+            @Valid @RequestBody BatchNotificationRequest request,
+            @AuthenticationPrincipal UserPrincipal principal) {
+
+        request.getNotifications().forEach(notification -> notification.setUserId(principal.id()));
+
+        BatchNotificationResponse response = notificationService.sendNotificationBatch(request.getNotifications());
+        return ResponseEntity.status(HttpStatus.OK).body(ApiResponse.success(response, "Notification batch processed"));
+    }
+
     @GetMapping("/{notification_id}/status")
     public ResponseEntity<ApiResponse<StatusResponse>> getNotificationStatus(
             @PathVariable("notification_id") String notificationId,
@@ -0,0 +1,14 @@
+package dev.slethware.apigateway.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Everything the send path needs to know about a user, resolved in one go
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationProfile {
+    private UserPreferences preferences;
+    private UserContact contact;
+}
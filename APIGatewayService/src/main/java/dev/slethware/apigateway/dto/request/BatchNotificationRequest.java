@@ -0,0 +1,18 @@
+package dev.slethware.apigateway.dto.request;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchNotificationRequest {
+
+    public static final int MAX_BATCH_SIZE = 5000;
+
+    @NotEmpty(message = "Notifications are required")
+    @Size(max = MAX_BATCH_SIZE, message = "A batch may contain at most 5000 notifications")
+    private List<@Valid NotificationRequest> notifications;
+}
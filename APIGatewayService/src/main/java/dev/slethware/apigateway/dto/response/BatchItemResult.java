@@ -0,0 +1,32 @@
+package dev.slethware.apigateway.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+
+    public static final String ACCEPTED = "accepted";
+    public static final String DUPLICATE = "duplicate";
+    public static final String REJECTED = "rejected";
+
+    private int index;
+
+    @JsonProperty("request_id")
+    private String requestId;
+
+    @JsonProperty("notification_id")
+    private String notificationId;
+
+    private String result; // "accepted", "duplicate", "rejected"
+
+    private String status;
+
+    private String error;
+}
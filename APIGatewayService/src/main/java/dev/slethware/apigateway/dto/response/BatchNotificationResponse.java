@@ -0,0 +1,21 @@
+package dev.slethware.apigateway.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchNotificationResponse {
+
+    private int accepted;
+
+    private int duplicates;
+
+    private int rejected;
+
+    private List<BatchItemResult> results;
+}
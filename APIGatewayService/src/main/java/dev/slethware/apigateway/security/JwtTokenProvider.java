@@ -1,42 +1,89 @@
 package dev.slethware.apigateway.security;
 
+import dev.slethware.apigateway.cache.NearCache;
 import dev.slethware.apigateway.exception.UnauthorizedException;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.UnsupportedJwtException;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
 import io.jsonwebtoken.security.SignatureException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
 import java.util.UUID;
 
 @Slf4j
 @Component
 public class JwtTokenProvider {
 
-    private final Key jwtSigningKey;
+    private final JwtParser jwtParser;
 
-    public JwtTokenProvider(@Value("${jwt.secret}") String jwtSecret) {
+    // Principals of tokens we already verified, keyed by a digest of the token.
+    // Entries never outlive the token's own exp claim.
+    private final NearCache<String, UserPrincipal> verifiedClaimsCache;
+    private final Counter signatureVerifications;
+
+    public JwtTokenProvider(@Value("${jwt.secret}") String jwtSecret,
+                            @Value("${jwt.claims-cache.max-size}") int claimsCacheMaxSize,
+                            @Value("${jwt.claims-cache.max-ttl}") Duration claimsCacheMaxTtl,
+                            MeterRegistry meterRegistry) {
         if (jwtSecret.length() < 44) {
             log.warn("JWT Secret is less than 44 characters (Base64-encoded 256-bit key). This may be insecure.");
         }
         byte[] keyBytes = Decoders.BASE64.decode(jwtSecret);
-        this.jwtSigningKey = Keys.hmacShaKeyFor(keyBytes);
+        Key jwtSigningKey = Keys.hmacShaKeyFor(keyBytes);
+
+        // The parser is immutable and thread-safe, so build it once
+        this.jwtParser = Jwts.parserBuilder()
+                .setSigningKey(jwtSigningKey)
+                .build();
+
+        this.verifiedClaimsCache = new NearCache<>("jwt.claims", claimsCacheMaxSize, claimsCacheMaxTtl);
+        this.verifiedClaimsCache.bindTo(meterRegistry);
+        this.signatureVerifications = Counter.builder("jwt.signature.verifications")
+                .description("JWT signatures verified (claims cache misses)")
+                .register(meterRegistry);
+    }
+
+    // Verifies the token once and extracts everything the security context needs.
+    // Repeat calls with the same token are served from the claims cache until it expires.
+    public UserPrincipal authenticate(String token) {
+        String cacheKey = digest(token);
+        UserPrincipal cached = verifiedClaimsCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        Claims claims = parseClaims(token);
+        UserPrincipal principal = new UserPrincipal(extractUserId(claims), extractEmail(claims));
+
+        Date expiration = claims.getExpiration();
+        if (expiration != null) {
+            verifiedClaimsCache.put(cacheKey, principal, expiration.getTime());
+        } else {
+            verifiedClaimsCache.put(cacheKey, principal);
+        }
+        return principal;
     }
 
-    public boolean validateToken(String token) {
+    private Claims parseClaims(String token) {
+        signatureVerifications.increment();
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(jwtSigningKey)
-                    .build()
-                    .parseClaimsJws(token);
-            return true;
+            return jwtParser.parseClaimsJws(token).getBody();
         } catch (SignatureException ex) {
             log.error("Invalid JWT signature: {}", ex.getMessage());
             throw new UnauthorizedException("Invalid JWT signature");
@@ -55,13 +102,7 @@ public class JwtTokenProvider {
         }
     }
 
-    public UUID getUserIdFromToken(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(jwtSigningKey)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-
+    private UUID extractUserId(Claims claims) {
         String userId = claims.get("user_id", String.class);
         if (userId == null) {
             userId = claims.getSubject();
@@ -73,17 +114,21 @@ public class JwtTokenProvider {
         return UUID.fromString(userId);
     }
 
-    public String getEmailFromToken(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(jwtSigningKey)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-
+    private String extractEmail(Claims claims) {
         String email = claims.get("email", String.class);
         if (email == null) {
             throw new UnauthorizedException("email not found in JWT");
         }
         return email;
     }
-}
\ No newline at end of file
+
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to ship SHA-256
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
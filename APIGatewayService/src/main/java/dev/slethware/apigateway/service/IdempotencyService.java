@@ -2,10 +2,16 @@ package dev.slethware.apigateway.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.List;
 
 @Slf4j
 @Service
@@ -17,20 +23,73 @@ public class IdempotencyService {
     private static final String IDEMPOTENCY_KEY_PREFIX = "idempotency:";
     private static final Duration IDEMPOTENCY_TTL = Duration.ofHours(24);
 
-    // Checks if a request ID has already been processed.
-    public String getNotificationId(String requestId) {
+    // Returns the notification id already holding the key, or reserves it for ours and returns nil
+    private static final RedisScript<String> RESERVE_SCRIPT = new DefaultRedisScript<>(
+            "local existing = redis.call('get', KEYS[1]) " +
+            "if existing then return existing end " +
+            "redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2]) " +
+            "return false",
+            String.class);
+    private static final byte[] RESERVE_SCRIPT_BYTES = RESERVE_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+
+    // Only drops the reservation if it is still ours
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+    private static final byte[] RELEASE_SCRIPT_BYTES = RELEASE_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+
+    // Atomically claims a request ID for the given notification in one round trip.
+    // Returns null when the claim succeeded, otherwise the notification ID that already owns the request.
+    public String reserve(String requestId, String notificationId) {
         String key = IDEMPOTENCY_KEY_PREFIX + requestId;
-        return (String) redisTemplate.opsForValue().get(key);
+        return redisTemplate.execute(RESERVE_SCRIPT, List.of(key),
+                notificationId, String.valueOf(IDEMPOTENCY_TTL.toMillis()));
     }
 
-    // Stores the idempotency key in Redis to prevent duplicate processing.
-    public void storeIdempotency(String requestId, String notificationId) {
+    // Gives a request ID back when processing failed, so the client can retry it.
+    public void release(String requestId, String notificationId) {
         String key = IDEMPOTENCY_KEY_PREFIX + requestId;
         try {
-            redisTemplate.opsForValue().set(key, notificationId, IDEMPOTENCY_TTL);
-            log.info("Stored idempotency key: {}", key);
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(key), notificationId);
+            log.info("Released idempotency key: {}", key);
+        } catch (Exception e) {
+            log.error("Failed to release idempotency key: {}", key, e);
+        }
+    }
+
+    // Batch form of reserve: every claim goes out in a single pipeline.
+    // The returned list lines up with the input, holding null for each claim that succeeded.
+    public List<String> reserveAll(List<String> requestIds, List<String> notificationIds) {
+        byte[] ttl = bytes(String.valueOf(IDEMPOTENCY_TTL.toMillis()));
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < requestIds.size(); i++) {
+                connection.scriptingCommands().eval(RESERVE_SCRIPT_BYTES, ReturnType.VALUE, 1,
+                        bytes(IDEMPOTENCY_KEY_PREFIX + requestIds.get(i)), bytes(notificationIds.get(i)), ttl);
+            }
+            return null;
+        });
+        return results.stream().map(result -> (String) result).toList();
+    }
+
+    public void releaseAll(List<String> requestIds, List<String> notificationIds) {
+        if (requestIds.isEmpty()) {
+            return;
+        }
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < requestIds.size(); i++) {
+                    connection.scriptingCommands().eval(RELEASE_SCRIPT_BYTES, ReturnType.INTEGER, 1,
+                            bytes(IDEMPOTENCY_KEY_PREFIX + requestIds.get(i)), bytes(notificationIds.get(i)));
+                }
+                return null;
+            });
+            log.info("Released {} idempotency keys", requestIds.size());
         } catch (Exception e) {
-            log.error("Failed to store idempotency key: {}", key, e);
+            log.error("Failed to release {} idempotency keys", requestIds.size(), e);
         }
     }
-}
\ No newline at end of file
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
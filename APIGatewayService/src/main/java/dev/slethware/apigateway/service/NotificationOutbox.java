@@ -0,0 +1,379 @@
+package dev.slethware.apigateway.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.slethware.apigateway.queue.NotificationMessage;
+import dev.slethware.apigateway.util.NotificationMessageCodec;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Local spool for notifications the broker cannot take right now (down, nacking or back-pressuring).
+// An append-only log of memory-mapped segment files under rabbitmq.outbox.dir:
+//   <segment id>.log  records of [int length][int crc32][format byte, message]; a zero length ends the segment
+//   cursor            segment id and offset of the first record the broker has not confirmed yet
+// Appending is a copy into the mapping, so a request thread never waits on the disk or the broker.
+// OutboxRelay drains the log in order. After a restart it is recovered up to the last intact record.
+@Slf4j
+@Service
+public class NotificationOutbox {
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CURSOR_FILE = "cursor";
+    private static final int HEADER_BYTES = 8;
+    private static final int CURSOR_BYTES = 12;
+
+    private static final byte FORMAT_BINARY = 1;
+    private static final byte FORMAT_JSON = 2;
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final boolean sync;
+    private boolean enabled;
+
+    // Mapped segments from the cursor's up to the one being written, by id
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private FileChannel cursorChannel;
+    private long writeSegment;
+    private int writeOffset;
+    private long cursorSegment;
+    private int cursorOffset;
+    // Records between the cursor and the end of the log
+    private long pending;
+
+    public NotificationOutbox(ObjectMapper redisObjectMapper,
+                              MeterRegistry meterRegistry,
+                              @Value("${rabbitmq.outbox.enabled}") boolean enabled,
+                              @Value("${rabbitmq.outbox.dir}") String directory,
+                              @Value("${rabbitmq.outbox.segment-size}") DataSize segmentSize,
+                              @Value("${rabbitmq.outbox.max-size}") DataSize maxSize,
+                              @Value("${rabbitmq.outbox.sync}") boolean sync) {
+        if (segmentSize.toBytes() <= HEADER_BYTES || segmentSize.toBytes() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("rabbitmq.outbox.segment-size must be between 9 bytes and 2GB");
+        }
+        this.objectMapper = redisObjectMapper;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.segmentSize = (int) segmentSize.toBytes();
+        this.maxSegments = (int) Math.max(1, maxSize.toBytes() / segmentSize.toBytes());
+        this.sync = sync;
+    }
+
+    @PostConstruct
+    public synchronized void open() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            recover();
+            Gauge.builder("outbox.pending", this, NotificationOutbox::pendingCount).register(meterRegistry);
+            if (pending > 0) {
+                log.warn("Recovered {} unsent notifications from the outbox in {}", pending, directory);
+            }
+        } catch (IOException e) {
+            // Without a usable outbox, publishing fails fast as it did before
+            log.error("Failed to open notification outbox in {}, running without it: {}", directory, e.getMessage(), e);
+            enabled = false;
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (!enabled) {
+            return;
+        }
+        segments.values().forEach(MappedByteBuffer::force);
+        try {
+            cursorChannel.force(false);
+            cursorChannel.close();
+        } catch (IOException e) {
+            log.error("Failed to close notification outbox cursor: {}", e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized boolean hasPending() {
+        return pending > 0;
+    }
+
+    public synchronized long pendingCount() {
+        return pending;
+    }
+
+    // False when the outbox is disabled, full, or the record could not be written
+    public synchronized boolean append(NotificationMessage message) {
+        if (!enabled) {
+            return false;
+        }
+        byte[] record = encode(message);
+        if (HEADER_BYTES + record.length > segmentSize) {
+            log.error("[{}] Notification {} is too large for the outbox ({} bytes)",
+                    message.getCorrelationId(), message.getNotificationId(), record.length);
+            return false;
+        }
+
+        try {
+            MappedByteBuffer segment = segments.get(writeSegment);
+            if (writeOffset + HEADER_BYTES + record.length > segment.capacity()) {
+                if (segments.size() >= maxSegments) {
+                    log.error("[{}] Notification outbox is full ({} records pending), cannot spool {}",
+                            message.getCorrelationId(), pending, message.getNotificationId());
+                    return false;
+                }
+                segment = roll();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            segment.putInt(writeOffset + 4, (int) crc.getValue());
+            segment.put(writeOffset + HEADER_BYTES, record);
+            // Length goes in last: a record torn by a crash reads as the end of the log
+            segment.putInt(writeOffset, record.length);
+            if (sync) {
+                segment.force(writeOffset, HEADER_BYTES + record.length);
+            }
+            writeOffset += HEADER_BYTES + record.length;
+            pending++;
+            return true;
+        } catch (IOException e) {
+            log.error("[{}] Failed to spool notification {} to the outbox: {}",
+                    message.getCorrelationId(), message.getNotificationId(), e.getMessage());
+            return false;
+        }
+    }
+
+    // Returns the messages that could not be spooled
+    public synchronized List<NotificationMessage> appendAll(List<NotificationMessage> messages) {
+        List<NotificationMessage> rejected = new ArrayList<>();
+        for (NotificationMessage message : messages) {
+            if (!append(message)) {
+                rejected.add(message);
+            }
+        }
+        return rejected;
+    }
+
+    // Up to max records from the cursor on, in the order they were appended. Nothing moves until commit,
+    // so a batch the broker did not confirm is read again on the next attempt.
+    // A record that no longer decodes comes back with a null message.
+    public synchronized List<Entry> read(int max) {
+        List<Entry> entries = new ArrayList<>();
+        if (!enabled) {
+            return entries;
+        }
+
+        long segmentId = cursorSegment;
+        int offset = cursorOffset;
+        while (entries.size() < max) {
+            MappedByteBuffer segment = segments.get(segmentId);
+            boolean tail = segmentId == writeSegment;
+            int end = tail ? writeOffset : segment.capacity();
+            int length = offset + HEADER_BYTES <= end ? segment.getInt(offset) : 0;
+            if (length <= 0 || offset + HEADER_BYTES + length > end) {
+                if (tail) {
+                    break;
+                }
+                segmentId = segments.higherKey(segmentId);
+                offset = 0;
+                continue;
+            }
+
+            int crc = segment.getInt(offset + 4);
+            byte[] record = new byte[length];
+            segment.get(offset + HEADER_BYTES, record);
+            offset += HEADER_BYTES + length;
+            entries.add(new Entry(decode(record, crc), new Position(segmentId, offset)));
+        }
+        return entries;
+    }
+
+    // Moves the cursor past records the broker has confirmed and drops the segments left behind it
+    public synchronized void commit(Position position, int records) {
+        cursorSegment = position.segment();
+        cursorOffset = position.offset();
+        pending = Math.max(0, pending - records);
+        try {
+            writeCursor();
+        } catch (IOException e) {
+            // The records are confirmed either way; after a restart they would only be sent again
+            log.error("Failed to write notification outbox cursor: {}", e.getMessage());
+        }
+
+        while (segments.firstKey() < cursorSegment) {
+            long segmentId = segments.pollFirstEntry().getKey();
+            try {
+                Files.deleteIfExists(segmentPath(segmentId));
+            } catch (IOException e) {
+                log.warn("Failed to delete drained outbox segment {}: {}", segmentId, e.getMessage());
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        cursorChannel = FileChannel.open(directory.resolve(CURSOR_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer cursor = ByteBuffer.allocate(CURSOR_BYTES);
+        boolean hasCursor = cursorChannel.read(cursor, 0) == CURSOR_BYTES;
+
+        List<Long> segmentIds;
+        try (Stream<Path> files = Files.list(directory)) {
+            segmentIds = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+
+        if (hasCursor) {
+            cursorSegment = cursor.getLong(0);
+            cursorOffset = cursor.getInt(8);
+        }
+        if (!segmentIds.isEmpty() && (!hasCursor || cursorSegment < segmentIds.getFirst())) {
+            cursorSegment = segmentIds.getFirst();
+            cursorOffset = 0;
+        }
+
+        for (long segmentId : segmentIds) {
+            if (segmentId < cursorSegment) {
+                Files.deleteIfExists(segmentPath(segmentId));
+            } else {
+                segments.put(segmentId, map(segmentId, (int) Files.size(segmentPath(segmentId))));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(cursorSegment, map(cursorSegment, segmentSize));
+            cursorOffset = 0;
+        }
+
+        // Count what is left to send and find where the last intact record ends
+        for (var entry : segments.entrySet()) {
+            MappedByteBuffer segment = entry.getValue();
+            int offset = entry.getKey() == cursorSegment ? cursorOffset : 0;
+            while (offset + HEADER_BYTES <= segment.capacity()) {
+                int length = segment.getInt(offset);
+                if (length <= 0 || offset + HEADER_BYTES + length > segment.capacity()
+                        || !intact(segment, offset, length)) {
+                    break;
+                }
+                offset += HEADER_BYTES + length;
+                pending++;
+            }
+            writeSegment = entry.getKey();
+            writeOffset = offset;
+        }
+        writeCursor();
+    }
+
+    // Starts the next segment. The end of the current one is marked, in case a torn record was left past it.
+    private MappedByteBuffer roll() throws IOException {
+        MappedByteBuffer current = segments.get(writeSegment);
+        if (writeOffset + 4 <= current.capacity()) {
+            current.putInt(writeOffset, 0);
+        }
+        writeSegment++;
+        writeOffset = 0;
+        MappedByteBuffer next = map(writeSegment, segmentSize);
+        segments.put(writeSegment, next);
+        return next;
+    }
+
+    private MappedByteBuffer map(long segmentId, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void writeCursor() throws IOException {
+        ByteBuffer cursor = ByteBuffer.allocate(CURSOR_BYTES);
+        cursor.putLong(cursorSegment).putInt(cursorOffset).flip();
+        cursorChannel.write(cursor, 0);
+        if (sync) {
+            cursorChannel.force(false);
+        }
+    }
+
+    private Path segmentPath(long segmentId) {
+        return directory.resolve(String.format("%020d%s", segmentId, SEGMENT_SUFFIX));
+    }
+
+    private static boolean intact(MappedByteBuffer segment, int offset, int length) {
+        byte[] record = new byte[length];
+        segment.get(offset + HEADER_BYTES, record);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue() == segment.getInt(offset + 4);
+    }
+
+    // Binary like the push wire format, or JSON for values the binary format has no tag for
+    private byte[] encode(NotificationMessage message) {
+        byte format;
+        byte[] body;
+        try {
+            format = FORMAT_BINARY;
+            body = NotificationMessageCodec.encode(message);
+        } catch (IllegalArgumentException e) {
+            format = FORMAT_JSON;
+            try {
+                body = objectMapper.writeValueAsBytes(message);
+            } catch (IOException jsonError) {
+                throw new RuntimeException("Failed to encode notification for the outbox", jsonError);
+            }
+        }
+
+        byte[] record = new byte[body.length + 1];
+        record[0] = format;
+        System.arraycopy(body, 0, record, 1, body.length);
+        return record;
+    }
+
+    private NotificationMessage decode(byte[] record, int crc) {
+        CRC32 actual = new CRC32();
+        actual.update(record);
+        if ((int) actual.getValue() != crc) {
+            log.error("Skipping corrupt outbox record ({} bytes)", record.length);
+            return null;
+        }
+        try {
+            byte[] body = new byte[record.length - 1];
+            System.arraycopy(record, 1, body, 0, body.length);
+            return switch (record[0]) {
+                case FORMAT_BINARY -> NotificationMessageCodec.decode(body);
+                case FORMAT_JSON -> objectMapper.readValue(body, NotificationMessage.class);
+                default -> throw new IllegalArgumentException("Unknown outbox record format " + record[0]);
+            };
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Skipping unreadable outbox record: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public record Position(long segment, int offset) {}
+
+    public record Entry(NotificationMessage message, Position next) {}
+}
@@ -1,8 +1,10 @@
 package dev.slethware.apigateway.service;
 
-import dev.slethware.apigateway.dto.UserContact;
+import dev.slethware.apigateway.dto.NotificationProfile;
 import dev.slethware.apigateway.dto.UserPreferences;
 import dev.slethware.apigateway.dto.request.NotificationRequest;
+import dev.slethware.apigateway.dto.response.BatchItemResult;
+import dev.slethware.apigateway.dto.response.BatchNotificationResponse;
 import dev.slethware.apigateway.dto.response.NotificationResponse;
 import dev.slethware.apigateway.dto.response.StatusResponse;
 import dev.slethware.apigateway.exception.BadRequestException;
@@ -13,14 +15,17 @@ import dev.slethware.apigateway.util.CorrelationIdGenerator;
 import dev.slethware.apigateway.util.RequestIdGenerator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 
-import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.IntPredicate;
 
 @Slf4j
 @Service
@@ -30,10 +35,7 @@ public class NotificationService {
     private final IdempotencyService idempotencyService;
     private final UserService userService;
     private final QueuePublisher queuePublisher;
-    private final RedisTemplate<String, Object> redisTemplate;
-
-    private static final String STATUS_KEY_PREFIX = "notification:status:";
-    private static final Duration STATUS_TTL = Duration.ofHours(24);
+    private final StatusService statusService;
 
     public NotificationResponse sendNotification(NotificationRequest request) {
 
@@ -41,43 +43,211 @@ public class NotificationService {
         log.info("[{}] Notification request received: type={}, user={}",
                 correlationId, request.getNotificationType(), request.getUserId());
 
-        // 1. Generate request_id if not provided
+        // 1. Generate notification_id up front so it can own the idempotency reservation
+        String notificationId = UUID.randomUUID().toString();
+
+        // 2. Reserve the request_id atomically, or generate one if not provided
         String requestId = request.getRequestId();
+        boolean reserved = false;
         if (requestId == null || requestId.isBlank()) {
+            // A freshly generated id cannot collide, so there is nothing to reserve
             requestId = RequestIdGenerator.generate();
             log.warn("[{}] No request_id provided by client, generating new one: {}. Idempotency is not guaranteed.",
                     correlationId, requestId);
+        } else {
+            String existingNotificationId = idempotencyService.reserve(requestId, notificationId);
+            if (existingNotificationId != null) {
+                log.warn("[{}] Duplicate request detected (idempotency key: {}). Returning cached response.",
+                        correlationId, requestId);
+                throw new DuplicateRequestException("Duplicate request: Notification already processed",
+                        getCachedResponse(existingNotificationId));
+            }
+            reserved = true;
         }
 
-        // 2. Check idempotency
-        String existingNotificationId = idempotencyService.getNotificationId(requestId);
-        if (existingNotificationId != null) {
-            log.warn("[{}] Duplicate request detected (idempotency key: {}). Returning cached response.",
-                    correlationId, requestId);
-            StatusResponse cachedStatus = getNotificationStatus(existingNotificationId);
-            NotificationResponse cachedResponse = new NotificationResponse(cachedStatus.getNotificationId(), cachedStatus.getStatus());
-            throw new DuplicateRequestException("Duplicate request: Notification already processed", cachedResponse);
+        boolean statusStored = false;
+        try {
+            // 3-4. Fetch user preferences, check the user has enabled this notification type, then fetch the contact
+            NotificationProfile profile = userService.getNotificationProfile(request.getUserId(), correlationId,
+                    preferences -> checkPreferences(request, preferences));
+
+            // 5. Build NotificationMessage for queue
+            NotificationMessage message = buildMessage(request, notificationId, requestId, correlationId, profile);
+
+            // 6. Record it as accepted before publishing; the publisher moves it to
+            //    "pending" once the broker confirms, so the confirm can never race the initial write
+            statusService.storeStatus(notificationId, StatusService.STATUS_ACCEPTED, null);
+            statusStored = true;
+
+            // 7. Publish to queue
+            queuePublisher.publishNotification(message);
+        } catch (RuntimeException e) {
+            // Nothing was queued, so let the client retry with the same request_id
+            if (statusStored) {
+                statusService.storeStatus(notificationId, StatusService.STATUS_FAILED, "Failed to queue notification");
+            }
+            if (reserved) {
+                idempotencyService.release(requestId, notificationId);
+            }
+            throw e;
         }
 
-        // 3. Generate new notification_id
-        String notificationId = UUID.randomUUID().toString();
+        // 8. Return response
+        log.info("[{}] Notification accepted for queueing: {}", correlationId, notificationId);
+        return new NotificationResponse(notificationId, StatusService.STATUS_ACCEPTED);
+    }
 
-        // 4. Fetch user preferences
-        UserPreferences preferences = userService.getUserPreferences(request.getUserId(), correlationId);
+    // Accepts a whole batch with bulk Redis and RabbitMQ work instead of one round trip set per item.
+    // Every item gets its own result; one bad item never fails the rest of the batch.
+    public BatchNotificationResponse sendNotificationBatch(List<NotificationRequest> requests) {
+        String batchCorrelationId = CorrelationIdGenerator.generate();
+        log.info("[{}] Batch notification request received: {} items", batchCorrelationId, requests.size());
 
-        // 5. Check if user has enabled this notification type
-        if (request.getNotificationType() == NotificationRequest.NotificationType.EMAIL && !preferences.isEmail()) {
-            throw new BadRequestException("User has disabled email notifications");
+        int size = requests.size();
+        BatchItemResult[] results = new BatchItemResult[size];
+        String[] notificationIds = new String[size];
+        String[] requestIds = new String[size];
+        boolean[] reserved = new boolean[size];
+
+        // 1. Assign ids, then reserve every client-supplied request_id in one pipeline
+        List<Integer> reservable = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            NotificationRequest request = requests.get(i);
+            notificationIds[i] = UUID.randomUUID().toString();
+            if (request.getRequestId() == null || request.getRequestId().isBlank()) {
+                requestIds[i] = RequestIdGenerator.generate();
+            } else {
+                requestIds[i] = request.getRequestId();
+                reservable.add(i);
+            }
         }
-        if (request.getNotificationType() == NotificationRequest.NotificationType.PUSH && !preferences.isPush()) {
-            throw new BadRequestException("User has disabled push notifications");
+
+        if (!reservable.isEmpty()) {
+            List<String> existing = idempotencyService.reserveAll(
+                    reservable.stream().map(i -> requestIds[i]).toList(),
+                    reservable.stream().map(i -> notificationIds[i]).toList());
+            for (int j = 0; j < reservable.size(); j++) {
+                int i = reservable.get(j);
+                if (existing.get(j) != null) {
+                    results[i] = new BatchItemResult(i, requestIds[i], existing.get(j), BatchItemResult.DUPLICATE, null, null);
+                } else {
+                    reserved[i] = true;
+                }
+            }
         }
 
-        // 6. Fetch user contact info
-        UserContact contact = userService.getUserContact(request.getUserId(), correlationId);
+        // Until the batch is handed to the publisher, a failure releases every reservation
+        List<NotificationMessage> messages = new ArrayList<>();
+        List<NotificationMessage> unpublished;
+        boolean statusesStored = false;
+        try {
+            // 2. Resolve every distinct user once; contacts only for users with at least one enabled item
+            Map<UUID, Set<NotificationRequest.NotificationType>> typesByUser = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                if (results[i] == null) {
+                    typesByUser.computeIfAbsent(requests.get(i).getUserId(), userId -> new HashSet<>())
+                            .add(requests.get(i).getNotificationType());
+                }
+            }
+            Map<UUID, NotificationProfile> profiles = userService.getNotificationProfiles(typesByUser.keySet(), batchCorrelationId,
+                    (userId, preferences) -> typesByUser.get(userId).stream().anyMatch(type -> isEnabled(type, preferences)));
+
+            // 3. Build messages for everything still eligible
+            Map<String, Integer> indexByNotificationId = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                if (results[i] != null) {
+                    continue;
+                }
+                NotificationRequest request = requests.get(i);
+                NotificationProfile profile = profiles.get(request.getUserId());
+                if (profile == null) {
+                    results[i] = rejected(i, requestIds[i], "Failed to resolve user profile");
+                    continue;
+                }
+                try {
+                    checkPreferences(request, profile.getPreferences());
+                    NotificationMessage message = buildMessage(request, notificationIds[i], requestIds[i],
+                            CorrelationIdGenerator.generate(), profile);
+                    messages.add(message);
+                    indexByNotificationId.put(notificationIds[i], i);
+                } catch (BadRequestException e) {
+                    results[i] = rejected(i, requestIds[i], e.getMessage());
+                }
+            }
+
+            // 4. Pipeline the initial statuses, then publish in chunks over shared channels
+            statusService.storeStatuses(messages.stream().map(NotificationMessage::getNotificationId).toList(),
+                    StatusService.STATUS_ACCEPTED, null);
+            statusesStored = true;
 
-        // 7. Build NotificationMessage for queue
-        NotificationMessage message = NotificationMessage.builder()
+            unpublished = queuePublisher.publishNotifications(messages);
+            for (NotificationMessage message : unpublished) {
+                int i = indexByNotificationId.get(message.getNotificationId());
+                results[i] = rejected(i, requestIds[i], "Failed to queue notification");
+            }
+        } catch (RuntimeException e) {
+            // Nothing is known to be queued, so fail what was recorded and let the client retry the whole batch
+            if (statusesStored) {
+                statusService.storeStatuses(messages.stream().map(NotificationMessage::getNotificationId).toList(),
+                        StatusService.STATUS_FAILED, "Failed to queue notification");
+            }
+            releaseReservations(requestIds, notificationIds, i -> reserved[i]);
+            throw e;
+        }
+
+        // 5. Everything left has been handed to the broker
+        int accepted = 0;
+        for (int i = 0; i < size; i++) {
+            if (results[i] == null) {
+                accepted++;
+                results[i] = new BatchItemResult(i, requestIds[i], notificationIds[i], BatchItemResult.ACCEPTED,
+                        StatusService.STATUS_ACCEPTED, null);
+            }
+        }
+
+        // 6. Hand reservations of rejected items back so they can be retried, even if recording the failures fails
+        try {
+            statusService.storeStatuses(unpublished.stream().map(NotificationMessage::getNotificationId).toList(),
+                    StatusService.STATUS_FAILED, "Failed to queue notification");
+        } finally {
+            releaseReservations(requestIds, notificationIds,
+                    i -> reserved[i] && BatchItemResult.REJECTED.equals(results[i].getResult()));
+        }
+
+        int duplicates = (int) Arrays.stream(results).filter(r -> BatchItemResult.DUPLICATE.equals(r.getResult())).count();
+        log.info("[{}] Batch processed: {} accepted, {} duplicates, {} rejected",
+                batchCorrelationId, accepted, duplicates, size - accepted - duplicates);
+        return new BatchNotificationResponse(accepted, duplicates, size - accepted - duplicates, Arrays.asList(results));
+    }
+
+    private void releaseReservations(String[] requestIds, String[] notificationIds, IntPredicate release) {
+        List<String> releaseRequestIds = new ArrayList<>();
+        List<String> releaseNotificationIds = new ArrayList<>();
+        for (int i = 0; i < requestIds.length; i++) {
+            if (release.test(i)) {
+                releaseRequestIds.add(requestIds[i]);
+                releaseNotificationIds.add(notificationIds[i]);
+            }
+        }
+        idempotencyService.releaseAll(releaseRequestIds, releaseNotificationIds);
+    }
+
+    private void checkPreferences(NotificationRequest request, UserPreferences preferences) {
+        if (!isEnabled(request.getNotificationType(), preferences)) {
+            throw new BadRequestException("User has disabled " + request.getNotificationType().name().toLowerCase() + " notifications");
+        }
+    }
+
+    private boolean isEnabled(NotificationRequest.NotificationType type, UserPreferences preferences) {
+        return switch (type) {
+            case EMAIL -> preferences.isEmail();
+            case PUSH -> preferences.isPush();
+        };
+    }
+
+    private NotificationMessage buildMessage(NotificationRequest request, String notificationId, String requestId,
+                                             String correlationId, NotificationProfile profile) {
+        return NotificationMessage.builder()
                 .notificationId(notificationId)
                 .requestId(requestId)
                 .userId(request.getUserId().toString())
@@ -86,66 +256,27 @@ public class NotificationService {
                 .variables(request.getVariables())
                 .priority(request.getPriority())
                 .metadata(request.getMetadata())
-                .userPreferences(preferences)
-                .userContact(contact)
+                .userPreferences(profile.getPreferences())
+                .userContact(profile.getContact())
                 .correlationId(correlationId)
                 .build();
+    }
 
-        // 8. Publish to queue
-        queuePublisher.publishNotification(message);
-
-        // 9. Store initial status in Redis
-        storeStatus(notificationId, null);
-
-        // 10. Store idempotency key
-        idempotencyService.storeIdempotency(requestId, notificationId);
-
-        // 11. Return response
-        log.info("[{}] Notification queued successfully: {}", correlationId, notificationId);
-        return new NotificationResponse(notificationId, "pending");
+    private BatchItemResult rejected(int index, String requestId, String error) {
+        return new BatchItemResult(index, requestId, null, BatchItemResult.REJECTED, null, error);
     }
 
-    public StatusResponse getNotificationStatus(String notificationId) {
-        String key = STATUS_KEY_PREFIX + notificationId;
-        
+    // The original request may still be in flight, in which case it has no status yet
+    private NotificationResponse getCachedResponse(String existingNotificationId) {
         try {
-            // Get raw string from Redis
-            String jsonString = (String) redisTemplate.opsForValue().get(key);
-            
-            if (jsonString == null || jsonString.isEmpty()) {
-                log.warn("Notification status not found for ID: {}", notificationId);
-                throw new ResourceNotFoundException("Notification status not found");
-            }
-            
-            // Manually deserialize using ObjectMapper
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
-            StatusResponse status = mapper.readValue(jsonString, StatusResponse.class);
-            
-            return status;
-        } catch (Exception e) {
-            log.error("Failed to deserialize status from Redis: {}", e.getMessage());
-            throw new ResourceNotFoundException("Notification status not found");
+            StatusResponse cachedStatus = getNotificationStatus(existingNotificationId);
+            return new NotificationResponse(cachedStatus.getNotificationId(), cachedStatus.getStatus());
+        } catch (ResourceNotFoundException e) {
+            return new NotificationResponse(existingNotificationId, "pending");
         }
     }
-    
-    private void storeStatus(String notificationId, String error) {
-        String key = STATUS_KEY_PREFIX + notificationId;
-        StatusResponse statusResponse = new StatusResponse(
-                notificationId,
-                "pending",
-                Instant.now().toString(),
-                error
-        );
-        try {
-            // Manually serialize to JSON string
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
-            String jsonString = mapper.writeValueAsString(statusResponse);
-            
-            redisTemplate.opsForValue().set(key, jsonString, STATUS_TTL);
-        } catch (Exception e) {
-            log.error("Failed to store notification status in Redis: {}", e.getMessage());
-        }
+
+    public StatusResponse getNotificationStatus(String notificationId) {
+        return statusService.getStatus(notificationId);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,102 @@
+package dev.slethware.apigateway.service;
+
+import dev.slethware.apigateway.queue.NotificationMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Drains the notification outbox into the broker, oldest first.
+// The cursor only moves past records the broker has confirmed, so a crash or an outage in the middle
+// means some records are sent again, never that one is lost.
+@Slf4j
+@Service
+public class OutboxRelay {
+
+    private final NotificationOutbox outbox;
+    private final QueuePublisher queuePublisher;
+    private final int batchSize;
+    private final Duration interval;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "outbox-relay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public OutboxRelay(NotificationOutbox outbox,
+                       QueuePublisher queuePublisher,
+                       @Value("${rabbitmq.outbox.relay-batch-size}") int batchSize,
+                       @Value("${rabbitmq.outbox.relay-interval}") Duration interval) {
+        this.outbox = outbox;
+        this.queuePublisher = queuePublisher;
+        this.batchSize = batchSize;
+        this.interval = interval;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (outbox.isEnabled()) {
+            executor.scheduleWithFixedDelay(this::drain, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Relays batch after batch until the outbox is empty or the broker stops confirming; then waits for the next tick
+    private void drain() {
+        try {
+            int relayedTotal = 0;
+            while (outbox.hasPending()) {
+                List<NotificationOutbox.Entry> entries = outbox.read(batchSize);
+                if (entries.isEmpty()) {
+                    break;
+                }
+
+                List<NotificationMessage> messages = entries.stream()
+                        .map(NotificationOutbox.Entry::message)
+                        .filter(Objects::nonNull)
+                        .toList();
+                int relayed = messages.isEmpty() ? 0 : queuePublisher.relay(messages);
+
+                // Records that no longer decode were logged when read and are committed along with their neighbours
+                int done = 0;
+                int published = 0;
+                for (NotificationOutbox.Entry entry : entries) {
+                    if (entry.message() != null) {
+                        if (published == relayed) {
+                            break;
+                        }
+                        published++;
+                    }
+                    done++;
+                }
+                if (done > 0) {
+                    outbox.commit(entries.get(done - 1).next(), done);
+                    relayedTotal += relayed;
+                }
+                if (done < entries.size()) {
+                    log.warn("Broker confirmed {} of {} notifications from the outbox, {} still pending; retrying in {}ms",
+                            relayed, messages.size(), outbox.pendingCount(), interval.toMillis());
+                    break;
+                }
+            }
+            if (relayedTotal > 0) {
+                log.info("Relayed {} notifications from the outbox, {} still pending", relayedTotal, outbox.pendingCount());
+            }
+        } catch (Exception e) {
+            log.error("Failed to relay notifications from the outbox: {}", e.getMessage(), e);
+        }
+    }
+}
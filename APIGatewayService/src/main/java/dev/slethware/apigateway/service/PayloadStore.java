@@ -0,0 +1,75 @@
+package dev.slethware.apigateway.service;
+
+import dev.slethware.apigateway.cache.NearCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+
+// Claim-check store for notification content too large to send through the broker.
+// Content is keyed by its SHA-256, so a campaign sending the same rich content to 200k users stores it once.
+// Entries outlive the push queue TTL plus every retry.
+@Slf4j
+@Service
+public class PayloadStore {
+
+    public static final String KEY_PREFIX = "notification:content:";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final Duration ttl;
+
+    // Keys stored from this instance within the last half TTL: still in Redis for at least as long again
+    private final NearCache<String, Boolean> recentlyStored;
+
+    public PayloadStore(RedisTemplate<String, Object> redisTemplate,
+                        @Value("${rabbitmq.claim-check.ttl}") Duration ttl,
+                        MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.ttl = ttl;
+        this.recentlyStored = new NearCache<>("claim-check.keys", 10_000, ttl.dividedBy(2));
+        this.recentlyStored.bindTo(meterRegistry);
+    }
+
+    // Stores the content and returns its key. Throws if Redis is unavailable,
+    // since a message must never reference content that was not stored.
+    public String put(byte[] content) {
+        String key = KEY_PREFIX + digest(content);
+        if (recentlyStored.get(key) != null) {
+            return key;
+        }
+
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            Boolean created = connection.stringCommands().set(rawKey, content, Expiration.from(ttl),
+                    RedisStringCommands.SetOption.ifAbsent());
+            if (!Boolean.TRUE.equals(created)) {
+                // Same content stored earlier, possibly by another instance: just push its expiry out
+                connection.keyCommands().pExpire(rawKey, ttl.toMillis());
+            }
+            return null;
+        });
+        recentlyStored.put(key, Boolean.TRUE);
+        log.debug("Stored {} bytes of notification content as {}", content.length, key);
+        return key;
+    }
+
+    private static String digest(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to ship SHA-256
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,19 +1,36 @@
 package dev.slethware.apigateway.service;
 
+import dev.slethware.apigateway.config.RabbitMQConfig;
 import dev.slethware.apigateway.queue.NotificationMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class QueuePublisher {
 
     private final RabbitTemplate rabbitTemplate;
+    private final StatusService statusService;
+    private final NotificationOutbox outbox;
 
     @Value("${rabbitmq.exchange}")
     private String exchangeName;
@@ -24,29 +41,286 @@ public class QueuePublisher {
     @Value("${rabbitmq.routing-keys.push}")
     private String pushRoutingKey;
 
+    @Value("${rabbitmq.routing-keys.push-high}")
+    private String pushHighRoutingKey;
+
+    @Value("${rabbitmq.routing-keys.push-bulk}")
+    private String pushBulkRoutingKey;
+
+    @Value("${rabbitmq.routing-keys.push-sharded}")
+    private String pushShardedRoutingKey;
+
+    @Value("${rabbitmq.push.shards}")
+    private int pushShards;
+
+    @Value("${rabbitmq.priority.high-threshold}")
+    private int highPriorityThreshold;
+
+    @Value("${rabbitmq.priority.bulk-threshold}")
+    private int bulkPriorityThreshold;
+
+    @Value("${rabbitmq.publish-batch-size}")
+    private int publishBatchSize;
+
+    @Value("${rabbitmq.publisher.max-in-flight}")
+    private int maxInFlight;
+
+    @Value("${rabbitmq.publisher.window-timeout}")
+    private Duration windowTimeout;
+
+    @Value("${rabbitmq.publisher.max-retries}")
+    private int maxRetries;
+
+    @Value("${rabbitmq.outbox.confirm-timeout}")
+    private Duration outboxConfirmTimeout;
+
+    private static final long RETRY_BASE_DELAY_MS = 100;
+
+    // Publishes the broker has not confirmed yet; bounds memory and applies backpressure when the broker slows down
+    private Semaphore inFlight;
+
+    // Nacked or returned messages are re-sent from here, never from the broker's confirm thread
+    private final ScheduledExecutorService republisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "queue-republisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        republisher.shutdown();
+    }
+
+    // Hands the message to the broker without waiting for its confirm.
+    // The confirm arrives asynchronously and moves the status from "accepted" to "pending".
+    // When the broker cannot take it, the message is spooled to the local outbox instead and the request still succeeds.
     public void publishNotification(NotificationMessage message) {
-        String routingKey = switch (message.getNotificationType().toUpperCase()) {
-            case "EMAIL" -> emailRoutingKey;
-            case "PUSH" -> pushRoutingKey;
-            default -> {
-                log.error("[{}] Unknown notification type: {}", message.getCorrelationId(), message.getNotificationType());
-                throw new IllegalArgumentException("Unknown notification type");
-            }
-        };
+        String routingKey = resolveRoutingKey(message);
+
+        // Nothing overtakes what is already waiting in the outbox, and while it drains the broker is not waited on
+        if (outbox.hasPending() && spool(message, "outbox is draining")) {
+            return;
+        }
 
         log.info("[{}] Publishing notification {} to exchange {} with routing key {}",
                 message.getCorrelationId(), message.getNotificationId(), exchangeName, routingKey);
 
+        if (!acquirePermit()) {
+            if (spool(message, "publisher confirm window full")) {
+                return;
+            }
+            log.error("[{}] Publisher confirm window full ({} in flight), rejecting notification {}",
+                    message.getCorrelationId(), maxInFlight, message.getNotificationId());
+            throw new RuntimeException("Failed to queue notification: broker is back-pressuring");
+        }
+
         try {
-            rabbitTemplate.convertAndSend(exchangeName, routingKey, message, postProcessor -> {
-                postProcessor.getMessageProperties().setDeliveryMode(MessageDeliveryMode.PERSISTENT);
-                postProcessor.getMessageProperties().setCorrelationId(message.getCorrelationId());
-                postProcessor.getMessageProperties().setHeader("request_id", message.getRequestId());
-                return postProcessor;
-            });
+            send(message, routingKey, 0);
         } catch (Exception e) {
+            inFlight.release();
+            if (spool(message, e.getMessage())) {
+                return;
+            }
             log.error("[{}] Failed to publish message to RabbitMQ: {}", message.getCorrelationId(), e.getMessage(), e);
             throw new RuntimeException("Failed to queue notification", e);
         }
     }
-}
\ No newline at end of file
+
+    // Publishes a batch in chunks, each chunk over a single channel. Whatever the broker cannot take,
+    // including everything after the first failure, is spooled to the outbox in order.
+    // Returns the messages that could be neither published nor spooled.
+    public List<NotificationMessage> publishNotifications(List<NotificationMessage> messages) {
+        List<NotificationMessage> failed = new ArrayList<>();
+
+        for (int from = 0; from < messages.size(); from += publishBatchSize) {
+            List<NotificationMessage> chunk = messages.subList(from, Math.min(from + publishBatchSize, messages.size()));
+            if (!failed.isEmpty() || outbox.hasPending()) {
+                failed.addAll(chunk);
+                continue;
+            }
+            int[] handled = {0};
+            try {
+                rabbitTemplate.invoke(operations -> {
+                    for (NotificationMessage message : chunk) {
+                        // Once one message has to wait for the outbox, the rest of the batch follows it there
+                        if (!failed.isEmpty() || !acquirePermit()) {
+                            failed.add(message);
+                        } else {
+                            try {
+                                send(message, resolveRoutingKey(message), 0);
+                            } catch (RuntimeException e) {
+                                inFlight.release();
+                                throw e;
+                            }
+                        }
+                        handled[0]++;
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                log.error("Failed to publish batch chunk of {} messages to RabbitMQ: {}", chunk.size(), e.getMessage(), e);
+                // Whatever made it out before the failure still gets its confirm
+                failed.addAll(chunk.subList(handled[0], chunk.size()));
+            }
+        }
+
+        List<NotificationMessage> rejected = outbox.appendAll(failed);
+        log.info("Published {} of {} notifications to exchange {}, {} spooled to the outbox",
+                messages.size() - failed.size(), messages.size(), exchangeName, failed.size() - rejected.size());
+        return rejected;
+    }
+
+    // Publishes outbox records in order over one channel and waits for their confirms.
+    // Returns how many of them, from the front, the broker has taken; the rest stay in the outbox for the next attempt.
+    public int relay(List<NotificationMessage> messages) {
+        List<CorrelationData> confirms = new ArrayList<>(messages.size());
+        try {
+            rabbitTemplate.invoke(operations -> {
+                for (NotificationMessage message : messages) {
+                    CorrelationData correlationData = new CorrelationData(message.getNotificationId());
+                    operations.convertAndSend(exchangeName, resolveRoutingKey(message), message,
+                            messageProperties(message), correlationData);
+                    confirms.add(correlationData);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // Whatever made it out before the failure still gets its confirm
+            log.warn("Failed to relay {} notifications from the outbox: {}", messages.size(), e.getMessage());
+        }
+
+        int relayed = 0;
+        for (CorrelationData correlationData : confirms) {
+            NotificationMessage message = messages.get(relayed);
+            CorrelationData.Confirm confirm;
+            try {
+                confirm = correlationData.getFuture().get(outboxConfirmTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                break;
+            }
+            if (!confirm.isAck()) {
+                break;
+            }
+
+            if (correlationData.getReturned() != null) {
+                // Unroutable: sending it again will not help, and it must not hold up the rest of the outbox
+                String reason = "Returned by broker: " + correlationData.getReturned().getReplyText();
+                log.error("[{}] Dropping notification {} from the outbox: {}",
+                        message.getCorrelationId(), message.getNotificationId(), reason);
+                statusService.advanceAccepted(message.getNotificationId(), StatusService.STATUS_FAILED, reason);
+            } else {
+                statusService.advanceAccepted(message.getNotificationId(), StatusService.STATUS_PENDING, null);
+            }
+            relayed++;
+        }
+        return relayed;
+    }
+
+    private void send(NotificationMessage message, String routingKey, int attempt) {
+        CorrelationData correlationData = new CorrelationData(message.getNotificationId());
+        rabbitTemplate.convertAndSend(exchangeName, routingKey, message, messageProperties(message), correlationData);
+        correlationData.getFuture().whenComplete((confirm, error) -> {
+            // Runs on the connection's confirm thread: the status move is only queued, never written here
+            if (error == null && confirm.isAck() && correlationData.getReturned() == null) {
+                inFlight.release();
+                statusService.advanceAccepted(message.getNotificationId(), StatusService.STATUS_PENDING, null);
+                return;
+            }
+
+            String reason;
+            if (error != null) {
+                reason = error.getMessage();
+            } else if (correlationData.getReturned() != null) {
+                reason = "Returned by broker: " + correlationData.getReturned().getReplyText();
+            } else {
+                reason = "Nacked by broker: " + confirm.getReason();
+            }
+            onPublishFailure(message, routingKey, attempt, reason);
+        });
+    }
+
+    private void onPublishFailure(NotificationMessage message, String routingKey, int attempt, String reason) {
+        if (attempt < maxRetries) {
+            long delay = RETRY_BASE_DELAY_MS << attempt;
+            log.warn("[{}] Publish of notification {} not confirmed ({}), retrying in {}ms",
+                    message.getCorrelationId(), message.getNotificationId(), reason, delay);
+            republisher.schedule(() -> {
+                try {
+                    send(message, routingKey, attempt + 1);
+                } catch (Exception e) {
+                    onPublishFailure(message, routingKey, attempt + 1, e.getMessage());
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        inFlight.release();
+        if (spool(message, reason)) {
+            return;
+        }
+        log.error("[{}] Giving up on notification {} after {} publish attempts: {}",
+                message.getCorrelationId(), message.getNotificationId(), attempt + 1, reason);
+        statusService.advanceAccepted(message.getNotificationId(), StatusService.STATUS_FAILED, reason);
+    }
+
+    // The status stays "accepted" until the relay gets a confirm for it
+    private boolean spool(NotificationMessage message, String reason) {
+        if (!outbox.append(message)) {
+            return false;
+        }
+        log.warn("[{}] Spooled notification {} to the outbox ({})",
+                message.getCorrelationId(), message.getNotificationId(), reason);
+        return true;
+    }
+
+    private boolean acquirePermit() {
+        try {
+            return inFlight.tryAcquire(windowTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private String resolveRoutingKey(NotificationMessage message) {
+        return switch (message.getNotificationType().toUpperCase()) {
+            case "EMAIL" -> emailRoutingKey;
+            case "PUSH" -> resolvePushLane(message.getPriority());
+            default -> {
+                log.error("[{}] Unknown notification type: {}", message.getCorrelationId(), message.getNotificationType());
+                throw new IllegalArgumentException("Unknown notification type");
+            }
+        };
+    }
+
+    // Push traffic is split into lanes so urgent sends never queue behind a bulk campaign.
+    // The normal lane goes through the shards when they are enabled.
+    private String resolvePushLane(int priority) {
+        if (priority >= highPriorityThreshold) {
+            return pushHighRoutingKey;
+        }
+        if (priority <= bulkPriorityThreshold) {
+            return pushBulkRoutingKey;
+        }
+        return pushShards > 0 ? pushShardedRoutingKey : pushRoutingKey;
+    }
+
+    private MessagePostProcessor messageProperties(NotificationMessage message) {
+        return postProcessor -> {
+            postProcessor.getMessageProperties().setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+            postProcessor.getMessageProperties().setCorrelationId(message.getCorrelationId());
+            postProcessor.getMessageProperties().setHeader("request_id", message.getRequestId());
+            // Picks the shard, so one user's pushes stay in order
+            postProcessor.getMessageProperties().setHeader(RabbitMQConfig.SHARD_HASH_HEADER, message.getUserId());
+            return postProcessor;
+        };
+    }
+}
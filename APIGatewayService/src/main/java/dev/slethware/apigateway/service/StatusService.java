@@ -0,0 +1,170 @@
+package dev.slethware.apigateway.service;
+
+import dev.slethware.apigateway.dto.response.StatusResponse;
+import dev.slethware.apigateway.exception.ResourceNotFoundException;
+import dev.slethware.apigateway.util.StatusCodec;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Service
+public class StatusService {
+
+    public static final String STATUS_ACCEPTED = "accepted";
+    public static final String STATUS_PENDING = "pending";
+    public static final String STATUS_FAILED = "failed";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final Duration advanceInterval;
+    private final int pipelineSize;
+
+    private static final String STATUS_KEY_PREFIX = "notification:status:";
+    private static final Duration STATUS_TTL = Duration.ofHours(24);
+    private static final byte[] WRITE_SCRIPT_BYTES = StatusCodec.WRITE_LUA.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] WRITE_IF_STATUS_SCRIPT_BYTES = StatusCodec.WRITE_IF_STATUS_LUA.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] STATUS_ACCEPTED_BYTES = STATUS_ACCEPTED.getBytes(StandardCharsets.UTF_8);
+
+    // Broker confirms arrive on the connection's thread, so their status moves are queued here and
+    // written by the status-advancer in pipelined batches instead of one Redis round trip per confirm
+    private final ConcurrentLinkedQueue<Advance> advances = new ConcurrentLinkedQueue<>();
+
+    private final ScheduledExecutorService advancer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "status-advancer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StatusService(RedisTemplate<String, Object> redisTemplate,
+                         @Value("${status.advance.flush-interval}") Duration advanceInterval,
+                         @Value("${status.advance.pipeline-size}") int pipelineSize) {
+        this.redisTemplate = redisTemplate;
+        this.advanceInterval = advanceInterval;
+        this.pipelineSize = pipelineSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        advancer.scheduleWithFixedDelay(this::flushAdvances,
+                advanceInterval.toMillis(), advanceInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        advancer.shutdown();
+        flushAdvances();
+    }
+
+    public StatusResponse getStatus(String notificationId) {
+        String key = STATUS_KEY_PREFIX + notificationId;
+
+        StatusResponse status;
+        try {
+            List<?> reply = redisTemplate.execute(StatusCodec.READ_SCRIPT, List.of(key));
+            status = StatusCodec.decode(notificationId, reply);
+        } catch (Exception e) {
+            log.error("Failed to read status from Redis: {}", e.getMessage());
+            throw new ResourceNotFoundException("Notification status not found");
+        }
+
+        if (status == null) {
+            log.warn("Notification status not found for ID: {}", notificationId);
+            throw new ResourceNotFoundException("Notification status not found");
+        }
+        return status;
+    }
+
+    public void storeStatus(String notificationId, String status, String error) {
+        String key = STATUS_KEY_PREFIX + notificationId;
+        try {
+            redisTemplate.execute(StatusCodec.WRITE_SCRIPT, List.of(key),
+                    (Object[]) StatusCodec.encode(status, System.currentTimeMillis(), error, STATUS_TTL.toMillis()));
+        } catch (Exception e) {
+            log.error("Failed to store notification status in Redis: {}", e.getMessage());
+        }
+    }
+
+    // Moves a notification from "accepted" to the given status once the broker has it.
+    // A late broker confirm never overwrites what a worker already reported.
+    // Only queues the move, so it is safe to call from the broker's confirm thread.
+    public void advanceAccepted(String notificationId, String status, String error) {
+        advances.add(new Advance(notificationId,
+                StatusCodec.encode(status, System.currentTimeMillis(), error, STATUS_TTL.toMillis())));
+    }
+
+    // Writes the queued moves, pipeline-size per round trip. A batch Redis would not take is dropped like a
+    // single failed write was: those notifications stay "accepted" until a worker reports on them.
+    void flushAdvances() {
+        List<Advance> batch = new ArrayList<>(pipelineSize);
+        Advance next;
+        while ((next = advances.poll()) != null) {
+            batch.add(next);
+            if (batch.size() == pipelineSize) {
+                writeAdvances(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeAdvances(batch);
+        }
+    }
+
+    private void writeAdvances(List<Advance> batch) {
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Advance advance : batch) {
+                    String[] args = advance.args();
+                    connection.scriptingCommands().eval(WRITE_IF_STATUS_SCRIPT_BYTES, ReturnType.INTEGER, 1,
+                            (STATUS_KEY_PREFIX + advance.notificationId()).getBytes(StandardCharsets.UTF_8),
+                            args[0].getBytes(StandardCharsets.UTF_8), args[1].getBytes(StandardCharsets.UTF_8),
+                            args[2].getBytes(StandardCharsets.UTF_8), args[3].getBytes(StandardCharsets.UTF_8),
+                            STATUS_ACCEPTED_BYTES);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("Failed to advance {} notification statuses in Redis: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    // Writes the same status for many notifications in one pipeline.
+    public void storeStatuses(List<String> notificationIds, String status, String error) {
+        if (notificationIds.isEmpty()) {
+            return;
+        }
+        String[] encoded = StatusCodec.encode(status, System.currentTimeMillis(), error, STATUS_TTL.toMillis());
+        byte[][] args = new byte[encoded.length][];
+        for (int i = 0; i < encoded.length; i++) {
+            args[i] = encoded[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String notificationId : notificationIds) {
+                    connection.scriptingCommands().eval(WRITE_SCRIPT_BYTES, ReturnType.INTEGER, 1,
+                            (STATUS_KEY_PREFIX + notificationId).getBytes(StandardCharsets.UTF_8),
+                            args[0], args[1], args[2], args[3]);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("Failed to store {} notification statuses in Redis: {}", notificationIds.size(), e.getMessage());
+        }
+    }
+
+    private record Advance(String notificationId, String[] args) {}
+}
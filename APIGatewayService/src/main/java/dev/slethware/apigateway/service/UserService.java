@@ -1,24 +1,49 @@
 package dev.slethware.apigateway.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.slethware.apigateway.cache.NearCache;
+import dev.slethware.apigateway.cache.SingleFlight;
+import dev.slethware.apigateway.dto.NotificationProfile;
 import dev.slethware.apigateway.dto.UserContact;
 import dev.slethware.apigateway.dto.UserPreferences;
 import dev.slethware.apigateway.dto.request.LoginRequest;
 import dev.slethware.apigateway.dto.request.RegisterRequest;
 import dev.slethware.apigateway.dto.request.UpdateUserRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Slf4j
 @Service
@@ -28,10 +53,33 @@ public class UserService {
     private final RedisTemplate<String, Object> redisTemplate;
     private final ObjectMapper objectMapper;
     private final String userServiceUrl;
+    private final String invalidationChannel;
+
+    // L1 caches in front of the Redis keys, keyed by user id
+    private final NearCache<UUID, UserPreferences> preferencesCache;
+    private final NearCache<UUID, UserContact> contactCache;
+
+    // In-flight User Service fetches, so a burst for one user turns into a single call
+    private final SingleFlight<UUID, UserPreferences> preferencesFlight = new SingleFlight<>("user.preferences");
+    private final SingleFlight<UUID, UserContact> contactFlight = new SingleFlight<>("user.contact");
+    private final Duration fetchLeaseTtl;
+    private final Duration fetchLeaseWait;
+
+    // Cheap virtual threads for the parallel User Service calls on a cache miss
+    private final ExecutorService userLookupExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     private static final String PREFERENCES_KEY_PREFIX = "user:preferences:";
     private static final String CONTACT_KEY_PREFIX = "user:contact:";
+    private static final String LEASE_KEY_PREFIX = "lease:";
     private static final Duration CACHE_TTL = Duration.ofHours(1);
+    private static final Duration LEASE_POLL_INTERVAL = Duration.ofMillis(25);
+    private static final int BULK_MGET_USERS = 500;
+    private static final int BULK_FETCH_CONCURRENCY = 32;
+
+    // Deletes the lease only if we still own it
+    private static final RedisScript<Long> RELEASE_LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
 
     private static final TypeReference<UserPreferences> PREFERENCES_TYPE_REFERENCE = new TypeReference<>() {};
     private static final TypeReference<UserContact> CONTACT_TYPE_REFERENCE = new TypeReference<>() {};
@@ -40,14 +88,41 @@ public class UserService {
     public UserService(RestTemplate restTemplate,
                        RedisTemplate<String, Object> redisTemplate,
                        ObjectMapper redisObjectMapper,
-                       @Value("${services.user-service.url}") String userServiceUrl) {
+                       RedisMessageListenerContainer redisMessageListenerContainer,
+                       MeterRegistry meterRegistry,
+                       @Value("${services.user-service.url}") String userServiceUrl,
+                       @Value("${cache.user.local.max-size}") int localCacheMaxSize,
+                       @Value("${cache.user.local.ttl}") Duration localCacheTtl,
+                       @Value("${cache.user.invalidation-channel}") String invalidationChannel,
+                       @Value("${cache.user.fetch-lease.ttl}") Duration fetchLeaseTtl,
+                       @Value("${cache.user.fetch-lease.wait}") Duration fetchLeaseWait) {
         this.restTemplate = restTemplate;
         this.redisTemplate = redisTemplate;
         this.objectMapper = redisObjectMapper;
         this.userServiceUrl = userServiceUrl;
+        this.invalidationChannel = invalidationChannel;
+        this.fetchLeaseTtl = fetchLeaseTtl;
+        this.fetchLeaseWait = fetchLeaseWait;
+
+        this.preferencesCache = new NearCache<>("user.preferences", localCacheMaxSize, localCacheTtl);
+        this.contactCache = new NearCache<>("user.contact", localCacheMaxSize, localCacheTtl);
+        this.preferencesCache.bindTo(meterRegistry);
+        this.contactCache.bindTo(meterRegistry);
+        this.preferencesFlight.bindTo(meterRegistry);
+        this.contactFlight.bindTo(meterRegistry);
+
+        // Every gateway replica drops its local copy when any replica invalidates a user
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(invalidationChannel));
     }
 
 
+    @PreDestroy
+    public void shutdown() {
+        userLookupExecutor.shutdown();
+    }
+
     public JsonNode registerUser(RegisterRequest request) {
         String url = userServiceUrl + "/";
         return restTemplate.postForObject(url, request, JsonNode.class);
@@ -76,20 +151,300 @@ public class UserService {
     public UserPreferences getUserPreferences(UUID userId, String correlationId) {
         String key = PREFERENCES_KEY_PREFIX + userId;
 
-        // 1. Check cache
+        // 1. Check local cache, then Redis
+        UserPreferences local = preferencesCache.get(userId);
+        if (local != null) {
+            return local;
+        }
+
         try {
             // Get the value as a JSON String
-            String cachedJson = (String) redisTemplate.opsForValue().get(key);
-            if (cachedJson != null && !cachedJson.isEmpty()) {
+            UserPreferences cached = readCachedPreferences(userId, (String) redisTemplate.opsForValue().get(key));
+            if (cached != null) {
                 log.info("[{}] User preferences found in cache for user {}", correlationId, userId);
-                // Convert from JSON String back to our DTO
-                return objectMapper.readValue(cachedJson, PREFERENCES_TYPE_REFERENCE);
+                return cached;
             }
         } catch (Exception e) {
             log.warn("[{}] Failed to get/parse user preferences from cache: {}", correlationId, e.getMessage());
         }
 
         // 2. Fetch from service
+        return fetchUserPreferences(userId, correlationId);
+    }
+
+    public UserContact getUserContact(UUID userId, String correlationId) {
+        String key = CONTACT_KEY_PREFIX + userId;
+
+        // 1. Check local cache, then Redis
+        UserContact local = contactCache.get(userId);
+        if (local != null) {
+            return local;
+        }
+
+        try {
+            UserContact cached = readCachedContact(userId, (String) redisTemplate.opsForValue().get(key));
+            if (cached != null) {
+                log.info("[{}] User contact found in cache for user {}", correlationId, userId);
+                return cached;
+            }
+        } catch (Exception e) {
+            log.warn("[{}] Failed to get/parse user contact from cache: {}", correlationId, e.getMessage());
+        }
+
+        // 2. Fetch from service
+        return fetchUserContact(userId, correlationId);
+    }
+
+    // Resolves preferences and contact together: one MGET for both Redis keys, then any misses go to the User Service.
+    // The preferences are checked before the contact is fetched, so a request the user has opted out of
+    // never pays for a contact lookup; the check rejects it by throwing.
+    public NotificationProfile getNotificationProfile(UUID userId, String correlationId,
+                                                      Consumer<UserPreferences> preferenceCheck) {
+        UserPreferences preferences = preferencesCache.get(userId);
+        UserContact contact = contactCache.get(userId);
+
+        // 1. Single Redis round trip for whatever the local cache did not have
+        if (preferences == null || contact == null) {
+            try {
+                List<Object> cached = redisTemplate.opsForValue()
+                        .multiGet(List.of(PREFERENCES_KEY_PREFIX + userId, CONTACT_KEY_PREFIX + userId));
+                if (cached != null) {
+                    if (preferences == null) {
+                        preferences = readCachedPreferences(userId, (String) cached.get(0));
+                    }
+                    if (contact == null) {
+                        contact = readCachedContact(userId, (String) cached.get(1));
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("[{}] Failed to get/parse user profile from cache: {}", correlationId, e.getMessage());
+            }
+        }
+
+        // 2. Preferences first, so an opted-out request stops here
+        if (preferences == null) {
+            log.info("[{}] User preferences not in cache, fetching from User Service for user {}", correlationId, userId);
+            preferences = fetchUserPreferences(userId, correlationId);
+        }
+        preferenceCheck.accept(preferences);
+
+        // 3. Only then the contact
+        if (contact == null) {
+            log.info("[{}] User contact not in cache, fetching from User Service for user {}", correlationId, userId);
+            contact = fetchUserContact(userId, correlationId);
+        }
+        return new NotificationProfile(preferences, contact);
+    }
+
+    // Bulk form of getNotificationProfile for batch sends: all Redis keys are read with chunked MGETs
+    // and users still missing are fetched from the User Service concurrently, with a cap on in-flight calls.
+    // A contact is only fetched when needsContact accepts the user's preferences; otherwise the profile has none.
+    // Users that could not be resolved are left out of the result.
+    public Map<UUID, NotificationProfile> getNotificationProfiles(Collection<UUID> userIds, String correlationId,
+                                                                  BiPredicate<UUID, UserPreferences> needsContact) {
+        Map<UUID, UserPreferences> preferences = new HashMap<>();
+        Map<UUID, UserContact> contacts = new HashMap<>();
+        List<UUID> missing = new ArrayList<>();
+
+        for (UUID userId : new LinkedHashSet<>(userIds)) {
+            UserPreferences localPreferences = preferencesCache.get(userId);
+            UserContact localContact = contactCache.get(userId);
+            if (localPreferences != null) {
+                preferences.put(userId, localPreferences);
+            }
+            if (localContact != null) {
+                contacts.put(userId, localContact);
+            }
+            if (localPreferences == null || localContact == null) {
+                missing.add(userId);
+            }
+        }
+
+        // 1. Chunked MGETs for everything the local cache did not have
+        for (int from = 0; from < missing.size(); from += BULK_MGET_USERS) {
+            List<UUID> chunk = missing.subList(from, Math.min(from + BULK_MGET_USERS, missing.size()));
+            List<String> keys = new ArrayList<>(chunk.size() * 2);
+            for (UUID userId : chunk) {
+                keys.add(PREFERENCES_KEY_PREFIX + userId);
+                keys.add(CONTACT_KEY_PREFIX + userId);
+            }
+            try {
+                List<Object> cached = redisTemplate.opsForValue().multiGet(keys);
+                if (cached == null) {
+                    continue;
+                }
+                for (int i = 0; i < chunk.size(); i++) {
+                    UUID userId = chunk.get(i);
+                    try {
+                        if (!preferences.containsKey(userId)) {
+                            UserPreferences cachedPreferences = readCachedPreferences(userId, (String) cached.get(2 * i));
+                            if (cachedPreferences != null) {
+                                preferences.put(userId, cachedPreferences);
+                            }
+                        }
+                        if (!contacts.containsKey(userId)) {
+                            UserContact cachedContact = readCachedContact(userId, (String) cached.get(2 * i + 1));
+                            if (cachedContact != null) {
+                                contacts.put(userId, cachedContact);
+                            }
+                        }
+                    } catch (Exception e) {
+                        log.warn("[{}] Failed to parse cached profile for user {}: {}", correlationId, userId, e.getMessage());
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("[{}] Failed to get user profiles from cache: {}", correlationId, e.getMessage());
+            }
+        }
+
+        // 2. Fetch the remaining misses from the User Service concurrently
+        Map<UUID, NotificationProfile> profiles = new HashMap<>();
+        Map<UUID, CompletableFuture<NotificationProfile>> fetches = new HashMap<>();
+        Semaphore permits = new Semaphore(BULK_FETCH_CONCURRENCY);
+        for (UUID userId : missing) {
+            UserPreferences cachedPreferences = preferences.get(userId);
+            UserContact cachedContact = contacts.get(userId);
+            if (cachedPreferences != null && cachedContact != null) {
+                continue;
+            }
+            fetches.put(userId, CompletableFuture.supplyAsync(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    UserPreferences resolved = cachedPreferences != null
+                            ? cachedPreferences : fetchUserPreferences(userId, correlationId);
+                    UserContact contact = cachedContact != null ? cachedContact
+                            : needsContact.test(userId, resolved) ? fetchUserContact(userId, correlationId) : null;
+                    return new NotificationProfile(resolved, contact);
+                } finally {
+                    permits.release();
+                }
+            }, userLookupExecutor));
+        }
+        if (!fetches.isEmpty()) {
+            log.info("[{}] Fetching {} user profiles from User Service", correlationId, fetches.size());
+        }
+
+        for (UUID userId : preferences.keySet()) {
+            if (contacts.containsKey(userId) && !fetches.containsKey(userId)) {
+                profiles.put(userId, new NotificationProfile(preferences.get(userId), contacts.get(userId)));
+            }
+        }
+        fetches.forEach((userId, fetch) -> {
+            try {
+                profiles.put(userId, fetch.join());
+            } catch (CompletionException e) {
+                log.error("[{}] Failed to resolve profile for user {}: {}", correlationId, userId, e.getCause().getMessage());
+            }
+        });
+        return profiles;
+    }
+
+    private UserPreferences readCachedPreferences(UUID userId, String cachedJson) throws JsonProcessingException {
+        if (cachedJson == null || cachedJson.isEmpty()) {
+            return null;
+        }
+        // Convert from JSON String back to our DTO
+        UserPreferences cached = objectMapper.readValue(cachedJson, PREFERENCES_TYPE_REFERENCE);
+        preferencesCache.put(userId, cached);
+        return cached;
+    }
+
+    private UserContact readCachedContact(UUID userId, String cachedJson) throws JsonProcessingException {
+        if (cachedJson == null || cachedJson.isEmpty()) {
+            return null;
+        }
+        UserContact cached = objectMapper.readValue(cachedJson, CONTACT_TYPE_REFERENCE);
+        contactCache.put(userId, cached);
+        return cached;
+    }
+
+    // Only one upstream call per user runs at a time in this JVM, and the Redis lease
+    // keeps the other gateway replicas from piling onto the User Service for the same user.
+    private UserPreferences fetchUserPreferences(UUID userId, String correlationId) {
+        return preferencesFlight.execute(userId, () -> {
+            UserPreferences local = preferencesCache.get(userId);
+            if (local != null) {
+                return local;
+            }
+            return fetchUnderLease(PREFERENCES_KEY_PREFIX + userId,
+                    () -> readCachedPreferences(userId, (String) redisTemplate.opsForValue().get(PREFERENCES_KEY_PREFIX + userId)),
+                    () -> loadUserPreferences(userId, correlationId),
+                    correlationId);
+        });
+    }
+
+    private UserContact fetchUserContact(UUID userId, String correlationId) {
+        return contactFlight.execute(userId, () -> {
+            UserContact local = contactCache.get(userId);
+            if (local != null) {
+                return local;
+            }
+            return fetchUnderLease(CONTACT_KEY_PREFIX + userId,
+                    () -> readCachedContact(userId, (String) redisTemplate.opsForValue().get(CONTACT_KEY_PREFIX + userId)),
+                    () -> loadUserContact(userId, correlationId),
+                    correlationId);
+        });
+    }
+
+    private <T> T fetchUnderLease(String cacheKey, CacheReader<T> cacheReader, Supplier<T> loader, String correlationId) {
+        String leaseKey = LEASE_KEY_PREFIX + cacheKey;
+        String leaseToken = UUID.randomUUID().toString();
+
+        Boolean acquired;
+        try {
+            acquired = redisTemplate.opsForValue().setIfAbsent(leaseKey, leaseToken, fetchLeaseTtl);
+        } catch (Exception e) {
+            log.warn("[{}] Failed to acquire fetch lease {}: {}", correlationId, leaseKey, e.getMessage());
+            return loader.get();
+        }
+
+        if (Boolean.TRUE.equals(acquired)) {
+            try {
+                return loader.get();
+            } finally {
+                releaseLease(leaseKey, leaseToken);
+            }
+        }
+
+        // Another replica holds the lease, so wait for it to fill the cache
+        long deadline = System.currentTimeMillis() + fetchLeaseWait.toMillis();
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(LEASE_POLL_INTERVAL.toMillis());
+                T cached = cacheReader.read();
+                if (cached != null) {
+                    log.info("[{}] Served {} from cache filled by another replica", correlationId, cacheKey);
+                    return cached;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.warn("[{}] Failed to read {} while waiting on fetch lease: {}", correlationId, cacheKey, e.getMessage());
+                break;
+            }
+        }
+
+        // The lease holder is slow or gone, fetch it ourselves
+        return loader.get();
+    }
+
+    private void releaseLease(String leaseKey, String leaseToken) {
+        try {
+            redisTemplate.execute(RELEASE_LEASE_SCRIPT, List.of(leaseKey), leaseToken);
+        } catch (Exception e) {
+            // Lease expires on its own
+            log.warn("Failed to release fetch lease {}: {}", leaseKey, e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface CacheReader<T> {
+        T read() throws Exception;
+    }
+
+    private UserPreferences loadUserPreferences(UUID userId, String correlationId) {
+        String key = PREFERENCES_KEY_PREFIX + userId;
         log.info("[{}] User preferences not in cache, fetching from User Service for user {}", correlationId, userId);
         String url = userServiceUrl + "/internal/users/" + userId + "/preferences";
 
@@ -108,6 +463,7 @@ public class UserService {
                 // Convert our DTO to a JSON String before saving
                 String jsonToCache = objectMapper.writeValueAsString(preferences);
                 redisTemplate.opsForValue().set(key, jsonToCache, CACHE_TTL);
+                preferencesCache.put(userId, preferences);
             }
             return preferences;
         } catch (Exception e) {
@@ -116,21 +472,8 @@ public class UserService {
         }
     }
 
-    public UserContact getUserContact(UUID userId, String correlationId) {
+    private UserContact loadUserContact(UUID userId, String correlationId) {
         String key = CONTACT_KEY_PREFIX + userId;
-
-        // 1. Check cache
-        try {
-            String cachedJson = (String) redisTemplate.opsForValue().get(key);
-            if (cachedJson != null && !cachedJson.isEmpty()) {
-                log.info("[{}] User contact found in cache for user {}", correlationId, userId);
-                return objectMapper.readValue(cachedJson, CONTACT_TYPE_REFERENCE);
-            }
-        } catch (Exception e) {
-            log.warn("[{}] Failed to get/parse user contact from cache: {}", correlationId, e.getMessage());
-        }
-
-        // 2. Fetch from service
         log.info("[{}] User contact not in cache, fetching from User Service for user {}", correlationId, userId);
         String url = userServiceUrl + "/internal/users/" + userId + "/contact";
 
@@ -148,6 +491,7 @@ public class UserService {
             if (contact != null) {
                 String jsonToCache = objectMapper.writeValueAsString(contact);
                 redisTemplate.opsForValue().set(key, jsonToCache, CACHE_TTL);
+                contactCache.put(userId, contact);
             }
             return contact;
         } catch (Exception e) {
@@ -156,13 +500,31 @@ public class UserService {
         }
     }
 
+    // Redis goes first: a request that refills the local cache in between must not find the stale copy there
     private void invalidateUserCaches(UUID userId) {
         try {
-            redisTemplate.delete(PREFERENCES_KEY_PREFIX + userId);
-            redisTemplate.delete(CONTACT_KEY_PREFIX + userId);
+            redisTemplate.delete(List.of(PREFERENCES_KEY_PREFIX + userId, CONTACT_KEY_PREFIX + userId));
+        } catch (Exception e) {
+            log.warn("Failed to delete cached profile of user {} from Redis: {}", userId, e.getMessage());
+        }
+        preferencesCache.invalidate(userId);
+        contactCache.invalidate(userId);
+        try {
+            // Tell the other gateway replicas to drop their local copies
+            redisTemplate.convertAndSend(invalidationChannel, userId.toString());
             log.info("Invalidated caches for user {}", userId);
         } catch (Exception e) {
             log.warn("Failed to invalidate caches for user {}: {}", userId, e.getMessage());
         }
     }
+
+    private void evictLocal(String userId) {
+        try {
+            UUID id = UUID.fromString(userId);
+            preferencesCache.invalidate(id);
+            contactCache.invalidate(id);
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring malformed cache invalidation message: {}", userId);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package dev.slethware.apigateway.util;
+
+import dev.slethware.apigateway.queue.NotificationMessage;
+import dev.slethware.apigateway.service.PayloadStore;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+// Claim check for oversized push messages. When a converted body is above the threshold, its variables
+// and metadata (where the rich content lives) go to the PayloadStore, and the message is sent without them,
+// carrying the store key in CLAIM_CHECK_HEADER. RabbitMQ writes every persistent message to disk, so this
+// keeps broker memory and disk flat however large the campaign content is.
+// Email is never claim-checked; the EmailService reads bodies straight from the queue.
+public class ClaimCheckMessageConverter implements MessageConverter {
+
+    public static final String CLAIM_CHECK_HEADER = "x-claim-check";
+
+    private final MessageConverter delegate;
+    private final PayloadStore payloadStore;
+    private final long thresholdBytes;
+
+    public ClaimCheckMessageConverter(MessageConverter delegate, PayloadStore payloadStore, long thresholdBytes) {
+        this.delegate = delegate;
+        this.payloadStore = payloadStore;
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) {
+        Message message = delegate.toMessage(object, messageProperties);
+        if (message.getBody().length <= thresholdBytes
+                || !(object instanceof NotificationMessage notification)
+                || !"PUSH".equalsIgnoreCase(notification.getNotificationType())
+                || (notification.getVariables() == null && notification.getMetadata() == null)) {
+            return message;
+        }
+
+        byte[] content;
+        try {
+            content = NotificationMessageCodec.encodeContent(notification.getVariables(), notification.getMetadata());
+        } catch (IllegalArgumentException e) {
+            // Content the codec cannot carry goes through the broker as it is
+            return message;
+        }
+
+        String key = payloadStore.put(content);
+        NotificationMessage reference = notification.toBuilder()
+                .variables(null)
+                .metadata(null)
+                .build();
+        Message slim = delegate.toMessage(reference, messageProperties);
+        slim.getMessageProperties().setHeader(CLAIM_CHECK_HEADER, key);
+        return slim;
+    }
+
+    // The gateway never consumes push messages, so there is nothing to resolve here
+    @Override
+    public Object fromMessage(Message message) {
+        return delegate.fromMessage(message);
+    }
+}
@@ -0,0 +1,52 @@
+package dev.slethware.apigateway.util;
+
+import dev.slethware.apigateway.queue.NotificationMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+// Publishes push notifications in the binary NotificationMessageCodec format and everything else as JSON.
+// Email stays JSON because its consumer is the Node EmailService. Reading goes by content type, so both
+// formats can be on a queue at the same time.
+@Slf4j
+public class NotificationMessageConverter implements MessageConverter {
+
+    private final MessageConverter jsonConverter;
+    private final boolean binaryPush;
+
+    public NotificationMessageConverter(MessageConverter jsonConverter, boolean binaryPush) {
+        this.jsonConverter = jsonConverter;
+        this.binaryPush = binaryPush;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) {
+        if (binaryPush && object instanceof NotificationMessage message && "PUSH".equalsIgnoreCase(message.getNotificationType())) {
+            try {
+                byte[] body = NotificationMessageCodec.encode(message);
+                messageProperties.setContentType(NotificationMessageCodec.CONTENT_TYPE);
+                messageProperties.setContentLength(body.length);
+                return new Message(body, messageProperties);
+            } catch (IllegalArgumentException e) {
+                // A variable of a type the codec does not know; JSON can still carry it
+                log.debug("[{}] Publishing notification {} as JSON: {}",
+                        message.getCorrelationId(), message.getNotificationId(), e.getMessage());
+            }
+        }
+        return jsonConverter.toMessage(object, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        if (NotificationMessageCodec.CONTENT_TYPE.equals(message.getMessageProperties().getContentType())) {
+            try {
+                return NotificationMessageCodec.decode(message.getBody());
+            } catch (RuntimeException e) {
+                throw new MessageConversionException("Failed to decode binary notification message", e);
+            }
+        }
+        return jsonConverter.fromMessage(message);
+    }
+}
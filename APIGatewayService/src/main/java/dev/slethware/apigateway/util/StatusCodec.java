@@ -0,0 +1,93 @@
+package dev.slethware.apigateway.util;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import dev.slethware.apigateway.dto.response.StatusResponse;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+
+// Storage format for notification:status:<id>, shared with the push service (same layout there).
+// A status is a small Redis hash: s = status, t = epoch millis, e = error (absent when there is none).
+// The notification id is the key itself. Legacy snake_case JSON strings are still read, since the
+// email service writes those.
+public final class StatusCodec {
+
+    public static final String FIELD_STATUS = "s";
+    public static final String FIELD_TIMESTAMP = "t";
+    public static final String FIELD_ERROR = "e";
+
+    // Replaces whatever is stored (including a legacy JSON string) and refreshes the TTL in one call.
+    // ARGV: status, epoch millis, error ("" for none), ttl millis
+    public static final String WRITE_LUA =
+            "if redis.call('type', KEYS[1]).ok ~= 'hash' then redis.call('del', KEYS[1]) end " +
+            "redis.call('hset', KEYS[1], '" + FIELD_STATUS + "', ARGV[1], '" + FIELD_TIMESTAMP + "', ARGV[2]) " +
+            "if ARGV[3] == '' then redis.call('hdel', KEYS[1], '" + FIELD_ERROR + "') " +
+            "else redis.call('hset', KEYS[1], '" + FIELD_ERROR + "', ARGV[3]) end " +
+            "redis.call('pexpire', KEYS[1], ARGV[4]) " +
+            "return 1";
+
+    // Same as WRITE_LUA, but only while the stored status is ARGV[5] (or nothing is stored yet).
+    public static final String WRITE_IF_STATUS_LUA =
+            "local kind = redis.call('type', KEYS[1]).ok " +
+            "if kind == 'hash' and redis.call('hget', KEYS[1], '" + FIELD_STATUS + "') ~= ARGV[5] then return 0 end " +
+            "if kind == 'string' and not string.find(redis.call('get', KEYS[1]), '\"status\":\"' .. ARGV[5] .. '\"', 1, true) then return 0 end " +
+            WRITE_LUA;
+
+    // Returns {s, t, e} for a hash, {json} for a legacy string, or nil.
+    public static final String READ_LUA =
+            "local kind = redis.call('type', KEYS[1]).ok " +
+            "if kind == 'hash' then return redis.call('hmget', KEYS[1], '" +
+                    FIELD_STATUS + "', '" + FIELD_TIMESTAMP + "', '" + FIELD_ERROR + "') end " +
+            "if kind == 'string' then return {redis.call('get', KEYS[1])} end " +
+            "return nil";
+
+    public static final RedisScript<Long> WRITE_SCRIPT = new DefaultRedisScript<>(WRITE_LUA, Long.class);
+    public static final RedisScript<Long> WRITE_IF_STATUS_SCRIPT = new DefaultRedisScript<>(WRITE_IF_STATUS_LUA, Long.class);
+    @SuppressWarnings("rawtypes")
+    public static final RedisScript<List> READ_SCRIPT = new DefaultRedisScript<>(READ_LUA, List.class);
+
+    private static final ObjectReader LEGACY_READER = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(StatusResponse.class);
+
+    private StatusCodec() {}
+
+    // Script arguments for WRITE_SCRIPT (and the first four of WRITE_IF_STATUS_SCRIPT).
+    public static String[] encode(String status, long timestampMillis, String error, long ttlMillis) {
+        return new String[] {
+                status,
+                Long.toString(timestampMillis),
+                error == null ? "" : error,
+                Long.toString(ttlMillis)
+        };
+    }
+
+    // Decodes a READ_SCRIPT reply; returns null when nothing is stored.
+    public static StatusResponse decode(String notificationId, List<?> reply) throws IOException {
+        if (reply == null || reply.isEmpty()) {
+            return null;
+        }
+        if (reply.size() == 1) {
+            String json = (String) reply.get(0);
+            return json == null || json.isEmpty() ? null : LEGACY_READER.readValue(json);
+        }
+
+        String status = (String) reply.get(0);
+        if (status == null) {
+            return null;
+        }
+        String timestamp = (String) reply.get(1);
+        return new StatusResponse(
+                notificationId,
+                status,
+                timestamp == null ? null : Instant.ofEpochMilli(Long.parseLong(timestamp)).toString(),
+                (String) reply.get(2));
+    }
+}
@@ -0,0 +1,117 @@
+package dev.slethware.apigateway.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> flight = new SingleFlight<>("test");
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> flight.execute("user", () -> {
+            loads.incrementAndGet();
+            await(release);
+            return "profile";
+        }));
+        Future<String> follower = joinWhileLoading(leader);
+
+        release.countDown();
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("profile");
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("profile");
+        assertThat(loads).hasValue(1);
+        assertThat(flight.executionCount()).isEqualTo(1);
+        assertThat(flight.coalescedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void runtimeExceptionReachesEveryCaller() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> flight.execute("user", failingAfter(release,
+                () -> new IllegalStateException("user service down"))));
+        Future<String> follower = joinWhileLoading(leader);
+
+        release.countDown();
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> follower.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("user service down");
+    }
+
+    @Test
+    void errorReachesEveryCallerInsteadOfHangingThem() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> flight.execute("user", failingAfter(release,
+                () -> new OutOfMemoryError("simulated"))));
+        Future<String> follower = joinWhileLoading(leader);
+
+        release.countDown();
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(OutOfMemoryError.class);
+        assertThatThrownBy(() -> follower.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(OutOfMemoryError.class);
+    }
+
+    @Test
+    void failedLoadIsNotCached() {
+        assertThatThrownBy(() -> flight.execute("user", () -> {
+            throw new IllegalStateException("first attempt");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(flight.execute("user", () -> "profile")).isEqualTo("profile");
+        assertThat(flight.executionCount()).isEqualTo(2);
+    }
+
+    // Starts a second caller for the same key and returns once it is waiting on the leader's load
+    private Future<String> joinWhileLoading(Future<String> leader) throws InterruptedException {
+        while (flight.executionCount() == 0) {
+            Thread.sleep(1);
+        }
+        Future<String> follower = executor.submit(() -> flight.execute("user", () -> "second load"));
+        while (flight.coalescedCount() == 0) {
+            assertThat(leader).isNotDone();
+            Thread.sleep(1);
+        }
+        return follower;
+    }
+
+    private static <T extends Throwable> Supplier<String> failingAfter(CountDownLatch release, Supplier<T> failure) {
+        return () -> {
+            await(release);
+            T thrown = failure.get();
+            if (thrown instanceof Error error) {
+                throw error;
+            }
+            throw (RuntimeException) thrown;
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package dev.slethware.apigateway.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.slethware.apigateway.config.RedisConfig;
+import dev.slethware.apigateway.queue.NotificationMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NotificationOutboxTest {
+
+    @TempDir
+    Path dir;
+
+    private final ObjectMapper objectMapper = new RedisConfig().redisObjectMapper();
+    private NotificationOutbox outbox;
+
+    @AfterEach
+    void close() {
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    @Test
+    void readsAppendedMessagesInOrderUntilCommitted() {
+        outbox = open(DataSize.ofKilobytes(64));
+
+        assertThat(outbox.appendAll(List.of(message("n-1"), message("n-2"), message("n-3")))).isEmpty();
+        assertThat(outbox.pendingCount()).isEqualTo(3);
+
+        List<NotificationOutbox.Entry> first = outbox.read(2);
+        assertThat(ids(first)).containsExactly("n-1", "n-2");
+        // Reading does not move the cursor
+        assertThat(ids(outbox.read(10))).containsExactly("n-1", "n-2", "n-3");
+
+        outbox.commit(first.getLast().next(), first.size());
+        assertThat(outbox.pendingCount()).isEqualTo(1);
+        assertThat(ids(outbox.read(10))).containsExactly("n-3");
+    }
+
+    @Test
+    void keepsValuesTheBinaryFormatCannotCarry() {
+        outbox = open(DataSize.ofKilobytes(64));
+        NotificationMessage message = message("n-1").toBuilder().variables(Map.of("at", Instant.EPOCH)).build();
+
+        assertThat(outbox.append(message)).isTrue();
+
+        NotificationMessage read = outbox.read(1).getFirst().message();
+        assertThat(read.getNotificationId()).isEqualTo("n-1");
+        assertThat(read.getVariables()).containsKey("at");
+    }
+
+    @Test
+    void recoversUncommittedMessagesAfterRestart() {
+        outbox = open(DataSize.ofKilobytes(64));
+        outbox.appendAll(List.of(message("n-1"), message("n-2"), message("n-3")));
+        List<NotificationOutbox.Entry> sent = outbox.read(1);
+        outbox.commit(sent.getLast().next(), sent.size());
+        outbox.close();
+
+        outbox = open(DataSize.ofKilobytes(64));
+
+        assertThat(outbox.pendingCount()).isEqualTo(2);
+        assertThat(ids(outbox.read(10))).containsExactly("n-2", "n-3");
+        // New records go after the recovered ones
+        outbox.append(message("n-4"));
+        assertThat(ids(outbox.read(10))).containsExactly("n-2", "n-3", "n-4");
+    }
+
+    @Test
+    void dropsATornTailOnRecoveryAndWritesOverIt() throws IOException {
+        outbox = open(DataSize.ofKilobytes(64));
+        outbox.appendAll(List.of(message("n-1"), message("n-2")));
+        int tornOffset = outbox.read(1).getFirst().next().offset();
+        outbox.close();
+
+        // Simulate a crash halfway through the second record: its length made it to disk, its body did not
+        corrupt(singleSegment(), tornOffset + 8 + 3);
+
+        outbox = open(DataSize.ofKilobytes(64));
+
+        assertThat(outbox.pendingCount()).isEqualTo(1);
+        assertThat(ids(outbox.read(10))).containsExactly("n-1");
+        outbox.append(message("n-3"));
+        assertThat(ids(outbox.read(10))).containsExactly("n-1", "n-3");
+    }
+
+    @Test
+    void rollsSegmentsAndDeletesThemOnceCommitted() throws IOException {
+        outbox = open(DataSize.ofBytes(256));
+        for (int i = 0; i < 8; i++) {
+            assertThat(outbox.append(message("n-" + i))).isTrue();
+        }
+        assertThat(segmentCount()).isGreaterThan(1);
+
+        List<NotificationOutbox.Entry> entries = outbox.read(100);
+        assertThat(entries).hasSize(8);
+        outbox.commit(entries.getLast().next(), entries.size());
+
+        assertThat(outbox.hasPending()).isFalse();
+        assertThat(segmentCount()).isEqualTo(1);
+    }
+
+    @Test
+    void refusesMessagesOnceFull() {
+        outbox = new NotificationOutbox(objectMapper, new SimpleMeterRegistry(), true, dir.toString(),
+                DataSize.ofBytes(256), DataSize.ofBytes(512), false);
+        outbox.open();
+
+        int accepted = 0;
+        while (outbox.append(message("n-" + accepted))) {
+            accepted++;
+        }
+
+        assertThat(accepted).isPositive();
+        assertThat(outbox.pendingCount()).isEqualTo(accepted);
+    }
+
+    @Test
+    void disabledOutboxTakesNothing() {
+        outbox = new NotificationOutbox(objectMapper, new SimpleMeterRegistry(), false, dir.toString(),
+                DataSize.ofKilobytes(64), DataSize.ofKilobytes(64), false);
+        outbox.open();
+
+        assertThat(outbox.append(message("n-1"))).isFalse();
+        assertThat(outbox.read(10)).isEmpty();
+    }
+
+    private NotificationOutbox open(DataSize segmentSize) {
+        NotificationOutbox opened = new NotificationOutbox(objectMapper, new SimpleMeterRegistry(), true,
+                dir.toString(), segmentSize, DataSize.ofMegabytes(1), false);
+        opened.open();
+        return opened;
+    }
+
+    private Path singleSegment() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> segments = files.filter(path -> path.toString().endsWith(".log")).toList();
+            assertThat(segments).hasSize(1);
+            return segments.getFirst();
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.toString().endsWith(".log")).count();
+        }
+    }
+
+    private static void corrupt(Path file, int position) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            b.put(0, (byte) ~b.get(0));
+            channel.write(b.rewind(), position);
+        }
+    }
+
+    private static List<String> ids(List<NotificationOutbox.Entry> entries) {
+        return entries.stream().map(entry -> entry.message().getNotificationId()).toList();
+    }
+
+    private static NotificationMessage message(String notificationId) {
+        return NotificationMessage.builder()
+                .notificationId(notificationId)
+                .requestId("req-" + notificationId)
+                .userId("user-1")
+                .notificationType("PUSH")
+                .templateCode("welcome")
+                .correlationId("corr-1")
+                .priority(1)
+                .variables(Map.of("name", "Ada"))
+                .build();
+    }
+}
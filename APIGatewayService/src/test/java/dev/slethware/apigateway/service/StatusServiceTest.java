@@ -0,0 +1,60 @@
+package dev.slethware.apigateway.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class StatusServiceTest {
+
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+    private final StatusService statusService = new StatusService(redisTemplate, Duration.ofMillis(5), 2);
+
+    @Test
+    void advancingOnlyQueuesTheWrite() {
+        statusService.advanceAccepted("n-1", StatusService.STATUS_PENDING, null);
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void flushPipelinesQueuedAdvancesInBatches() {
+        for (int i = 0; i < 5; i++) {
+            statusService.advanceAccepted("n-" + i, StatusService.STATUS_PENDING, null);
+        }
+
+        statusService.flushAdvances();
+
+        verify(redisTemplate, times(3)).executePipelined(any(RedisCallback.class));
+        statusService.flushAdvances();
+        verify(redisTemplate, times(3)).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    void failedBatchIsDroppedWithoutStoppingTheRest() {
+        when(redisTemplate.executePipelined(any(RedisCallback.class)))
+                .thenThrow(new QueryTimeoutException("redis down"))
+                .thenReturn(List.of());
+        for (int i = 0; i < 4; i++) {
+            statusService.advanceAccepted("n-" + i, StatusService.STATUS_FAILED, "Returned by broker");
+        }
+
+        assertThatCode(statusService::flushAdvances).doesNotThrowAnyException();
+
+        verify(redisTemplate, times(2)).executePipelined(any(RedisCallback.class));
+        verify(redisTemplate, never()).execute(any(RedisCallback.class));
+    }
+}
@@ -0,0 +1,72 @@
+package dev.slethware.apigateway.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import dev.slethware.apigateway.cache.NearCache;
+import dev.slethware.apigateway.config.RedisConfig;
+import dev.slethware.apigateway.dto.UserPreferences;
+import dev.slethware.apigateway.dto.request.UpdateUserRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UserServiceTest {
+
+    private final RestTemplate restTemplate = mock(RestTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+    private final UserService userService = new UserService(restTemplate, redisTemplate,
+            new RedisConfig().redisObjectMapper(), mock(RedisMessageListenerContainer.class), new SimpleMeterRegistry(),
+            "http://users", 100, Duration.ofMinutes(1), "cache:user:invalidate",
+            Duration.ofSeconds(5), Duration.ofSeconds(1));
+
+    @AfterEach
+    void shutdown() {
+        userService.shutdown();
+    }
+
+    // Dropping the local copy first would let a concurrent read refill it from the stale Redis entry
+    @Test
+    void updateDeletesRedisKeysBeforeDroppingLocalCopies() {
+        UUID userId = UUID.randomUUID();
+        NearCache<UUID, UserPreferences> preferencesCache = localPreferences();
+        preferencesCache.put(userId, new UserPreferences());
+        when(restTemplate.exchange(anyString(), eq(HttpMethod.PATCH), any(HttpEntity.class), eq(JsonNode.class)))
+                .thenReturn(ResponseEntity.ok().build());
+        when(redisTemplate.delete(anyCollection())).thenAnswer(invocation -> {
+            assertThat(preferencesCache.get(userId)).isNotNull();
+            return 2L;
+        });
+
+        userService.updateUserProfile(userId, new UpdateUserRequest());
+
+        InOrder order = inOrder(redisTemplate);
+        order.verify(redisTemplate).delete(anyCollection());
+        order.verify(redisTemplate).convertAndSend("cache:user:invalidate", userId.toString());
+        assertThat(preferencesCache.get(userId)).isNull();
+    }
+
+    @SuppressWarnings("unchecked")
+    private NearCache<UUID, UserPreferences> localPreferences() {
+        return (NearCache<UUID, UserPreferences>) ReflectionTestUtils.getField(userService, "preferencesCache");
+    }
+}
@@ -0,0 +1,158 @@
+package dev.slethware.apigateway.util;
+
+import dev.slethware.apigateway.dto.UserContact;
+import dev.slethware.apigateway.dto.UserPreferences;
+import dev.slethware.apigateway.queue.NotificationMessage;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NotificationMessageCodecTest {
+
+    // The push service's codec test decodes these same bytes, so a layout change on one side fails the build
+    private static final String GOLDEN_HEX = ""
+            + "01"                                            // version
+            + "01036e2d31"                                    // notification_id "n-1"
+            + "01057265712d31"                                // request_id "req-1"
+            + "0106757365722d31"                              // user_id "user-1"
+            + "010450555348"                                  // notification_type "PUSH"
+            + "010777656c636f6d65"                            // template_code "welcome"
+            + "0106636f72722d31"                              // correlation_id "corr-1"
+            + "03"                                            // priority -2, zigzag
+            + "07"                                            // preferences present, email, push
+            + "010d61406578616d706c652e636f6d"                // contact email "a@example.com"
+            + "0105746f6b656e"                                // contact push_token "token"
+            + "0702046e616d65010341646105636f756e740254"      // variables {name: "Ada", count: 42}
+            + "07010863616d706169676e0106737072696e67";       // metadata {campaign: "spring"}
+
+    @Test
+    void roundTripsEveryField() {
+        NotificationMessage message = fullMessage();
+
+        assertThat(NotificationMessageCodec.decode(NotificationMessageCodec.encode(message))).isEqualTo(message);
+    }
+
+    @Test
+    void roundTripsNestedAndNumericValues() {
+        Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("int", -42);
+        variables.put("long", Long.MIN_VALUE);
+        variables.put("double", 3.25);
+        variables.put("yes", true);
+        variables.put("no", false);
+        variables.put("missing", null);
+        variables.put("list", List.of("a", 1, List.of()));
+        variables.put("map", Map.of("inner", "ü€😀"));
+        NotificationMessage message = fullMessage().toBuilder().variables(variables).priority(-7).build();
+
+        NotificationMessage decoded = NotificationMessageCodec.decode(NotificationMessageCodec.encode(message));
+
+        assertThat(decoded.getVariables()).containsExactlyEntriesOf(variables);
+        assertThat(decoded.getPriority()).isEqualTo(-7);
+    }
+
+    @Test
+    void keepsAbsentFieldsAbsent() {
+        NotificationMessage message = NotificationMessage.builder().notificationId("n-1").build();
+
+        NotificationMessage decoded = NotificationMessageCodec.decode(NotificationMessageCodec.encode(message));
+
+        assertThat(decoded).isEqualTo(message);
+        assertThat(decoded.getUserPreferences()).isNull();
+        assertThat(decoded.getUserContact()).isNull();
+    }
+
+    @Test
+    void matchesTheSharedWireLayout() {
+        assertThat(HexFormat.of().formatHex(NotificationMessageCodec.encode(goldenMessage()))).isEqualTo(GOLDEN_HEX);
+    }
+
+    @Test
+    void refusesValuesWithoutABinaryEncoding() {
+        NotificationMessage message = fullMessage().toBuilder().variables(Map.of("at", Instant.EPOCH)).build();
+
+        assertThatThrownBy(() -> NotificationMessageCodec.encode(message))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("java.time.Instant");
+    }
+
+    @Test
+    void rejectsTruncatedAndForeignInput() {
+        byte[] encoded = NotificationMessageCodec.encode(fullMessage());
+
+        assertThatThrownBy(() -> NotificationMessageCodec.decode(Arrays.copyOf(encoded, encoded.length - 3)))
+                .isInstanceOf(IllegalArgumentException.class);
+        encoded[0] = 9;
+        assertThatThrownBy(() -> NotificationMessageCodec.decode(encoded))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("version");
+    }
+
+    @Test
+    void roundTripsClaimCheckedContent() {
+        Map<String, Object> variables = Map.of("body", "x".repeat(10_000));
+        Map<String, Object> metadata = Map.of("campaign", "spring");
+
+        NotificationMessageCodec.Content content =
+                NotificationMessageCodec.decodeContent(NotificationMessageCodec.encodeContent(variables, metadata));
+
+        assertThat(content.variables()).isEqualTo(variables);
+        assertThat(content.metadata()).isEqualTo(metadata);
+    }
+
+    private static NotificationMessage goldenMessage() {
+        UserPreferences preferences = new UserPreferences();
+        preferences.setEmail(true);
+        preferences.setPush(true);
+        UserContact contact = new UserContact();
+        contact.setEmail("a@example.com");
+        contact.setPushToken("token");
+
+        Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("name", "Ada");
+        variables.put("count", 42);
+        return NotificationMessage.builder()
+                .notificationId("n-1")
+                .requestId("req-1")
+                .userId("user-1")
+                .notificationType("PUSH")
+                .templateCode("welcome")
+                .correlationId("corr-1")
+                .priority(-2)
+                .userPreferences(preferences)
+                .userContact(contact)
+                .variables(variables)
+                .metadata(Map.of("campaign", "spring"))
+                .build();
+    }
+
+    private static NotificationMessage fullMessage() {
+        UserPreferences preferences = new UserPreferences();
+        preferences.setEmail(false);
+        preferences.setPush(true);
+        UserContact contact = new UserContact();
+        contact.setPushToken("fcm-token");
+
+        return NotificationMessage.builder()
+                .notificationId("9b2f6c1e-0000-4000-8000-000000000001")
+                .requestId("req-1")
+                .userId("3f1e0000-0000-4000-8000-000000000002")
+                .notificationType("PUSH")
+                .templateCode("order_shipped")
+                .correlationId("corr-1")
+                .priority(2)
+                .userPreferences(preferences)
+                .userContact(contact)
+                .variables(Map.of("order", "A-1001"))
+                .metadata(Map.of("source", "checkout"))
+                .build();
+    }
+}
@@ -2,36 +2,102 @@ package dev.slethware.pushnotifications.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import dev.slethware.pushnotifications.service.PayloadStore;
+import dev.slethware.pushnotifications.util.ClaimCheckMessageConverter;
+import dev.slethware.pushnotifications.util.NotificationMessageConverter;
+import dev.slethware.pushnotifications.util.PriorityLanes;
+import dev.slethware.pushnotifications.util.RetryUtil;
 import org.springframework.amqp.core.*;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.context.annotation.Primary;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Configuration
 public class RabbitMQConfig {
 
+    // The sharded exchange hashes on this header rather than the routing key; the gateway and retries set it to user_id
+    public static final String SHARD_HASH_HEADER = "user_id";
+
     @Value("${rabbitmq.exchange}")
     private String exchangeName;
 
     @Value("${rabbitmq.queue.push}")
     private String pushQueueName;
 
+    @Value("${rabbitmq.queue.push-high}")
+    private String pushHighQueueName;
+
+    @Value("${rabbitmq.queue.push-bulk}")
+    private String pushBulkQueueName;
+
     @Value("${rabbitmq.queue.failed}")
     private String failedQueueName;
 
     @Value("${rabbitmq.routing-key.push}")
     private String pushRoutingKey;
 
+    @Value("${rabbitmq.routing-key.push-high}")
+    private String pushHighRoutingKey;
+
+    @Value("${rabbitmq.routing-key.push-bulk}")
+    private String pushBulkRoutingKey;
+
     @Value("${rabbitmq.routing-key.failed}")
     private String failedRoutingKey;
 
+    @Value("${rabbitmq.routing-key.push-sharded}")
+    private String pushShardedRoutingKey;
+
+    @Value("${rabbitmq.push.shards}")
+    private int pushShards;
+
+    @Value("${rabbitmq.push.shard-exchange}")
+    private String pushShardExchangeName;
+
+    @Value("${rabbitmq.push.shard-queue-prefix}")
+    private String pushShardQueuePrefix;
+
+    @Value("${push.shards.max-in-flight}")
+    private int shardMaxInFlight;
+
+    @Value("${rabbitmq.push.wire-format}")
+    private String pushWireFormat;
+
+    @Value("${retry.max-attempts}")
+    private int maxRetries;
+
+    @Value("${spring.rabbitmq.listener.simple.prefetch}")
+    private int prefetch;
+
+    @Value("${spring.rabbitmq.listener.simple.concurrency}")
+    private int concurrency;
+
+    @Value("${spring.rabbitmq.listener.simple.max-concurrency}")
+    private int maxConcurrency;
+
+    @Value("${push.consumer.batch.size}")
+    private int consumerBatchSize;
+
+    @Value("${push.consumer.batch.receive-timeout}")
+    private Duration consumerBatchReceiveTimeout;
+
+    @Value("${push.consumer.async.max-in-flight}")
+    private int asyncMaxInFlight;
+
+    @Value("${push.consumer.async.concurrency}")
+    private int asyncConcurrency;
+
     @Bean
     public DirectExchange exchange() {
         return new DirectExchange(exchangeName);
@@ -39,14 +105,44 @@ public class RabbitMQConfig {
 
     @Bean
     public Queue pushQueue() {
-        Map<String, Object> args = new HashMap<>();
-        args.put("x-dead-letter-exchange", exchangeName);
-        args.put("x-dead-letter-routing-key", failedRoutingKey);
-        args.put("x-message-ttl", 3600000); // 1 hour
+        return pushLaneQueue(pushQueueName);
+    }
 
-        return QueueBuilder.durable(pushQueueName)
-                .withArguments(args)
-                .build();
+    // Priority lanes next to push.queue, which is the normal lane
+    @Bean
+    public Queue pushHighQueue() {
+        return pushLaneQueue(pushHighQueueName);
+    }
+
+    @Bean
+    public Queue pushBulkQueue() {
+        return pushLaneQueue(pushBulkQueueName);
+    }
+
+    // Sharded normal lane, when rabbitmq.push.shards > 0: push.sharded is bound to the direct exchange and
+    // spreads messages over push.queue.shard.0..N-1 by a consistent hash of user_id, so one user's messages
+    // always land on the same shard. Shards are split between instances by push.shards.instance-index/count;
+    // single-active-consumer keeps a shard in order even if two instances are given the same index.
+    // Needs the rabbitmq_consistent_hash_exchange plugin.
+    @Bean
+    public Declarables pushShards(DirectExchange exchange) {
+        List<Declarable> declarables = new ArrayList<>();
+        if (pushShards <= 0) {
+            return new Declarables(declarables);
+        }
+
+        CustomExchange shardExchange = new CustomExchange(pushShardExchangeName, "x-consistent-hash", true, false,
+                Map.of("hash-header", SHARD_HASH_HEADER));
+        declarables.add(shardExchange);
+        declarables.add(BindingBuilder.bind(shardExchange).to(exchange).with(pushShardedRoutingKey));
+
+        for (int shard = 0; shard < pushShards; shard++) {
+            Queue queue = pushShardQueue(pushShardQueuePrefix + shard);
+            declarables.add(queue);
+            // The binding key is the shard's weight on the hash ring
+            declarables.add(BindingBuilder.bind(queue).to(shardExchange).with("1").noargs());
+        }
+        return new Declarables(declarables);
     }
 
     @Bean
@@ -54,11 +150,41 @@ public class RabbitMQConfig {
         return QueueBuilder.durable(failedQueueName).build();
     }
 
+    // One delay queue per lane and backoff step. Nothing consumes them: a message sits there until its TTL
+    // runs out, then dead-letters back onto its lane's routing key.
+    @Bean
+    public Declarables retryQueues(RetryUtil retryUtil, PriorityLanes priorityLanes) {
+        List<Declarable> queues = new ArrayList<>();
+        for (PriorityLanes.Lane lane : PriorityLanes.Lane.values()) {
+            for (long delay : retryUtil.retryDelays(maxRetries)) {
+                Map<String, Object> args = new HashMap<>();
+                args.put("x-dead-letter-exchange", exchangeName);
+                args.put("x-dead-letter-routing-key", priorityLanes.routingKey(lane));
+                args.put("x-message-ttl", delay);
+
+                queues.add(QueueBuilder.durable(RetryUtil.retryQueueName(priorityLanes.retryQueuePrefix(lane), delay))
+                        .withArguments(args)
+                        .build());
+            }
+        }
+        return new Declarables(queues);
+    }
+
     @Bean
     public Binding pushBinding(Queue pushQueue, DirectExchange exchange) {
         return BindingBuilder.bind(pushQueue).to(exchange).with(pushRoutingKey);
     }
 
+    @Bean
+    public Binding pushHighBinding(Queue pushHighQueue, DirectExchange exchange) {
+        return BindingBuilder.bind(pushHighQueue).to(exchange).with(pushHighRoutingKey);
+    }
+
+    @Bean
+    public Binding pushBulkBinding(Queue pushBulkQueue, DirectExchange exchange) {
+        return BindingBuilder.bind(pushBulkQueue).to(exchange).with(pushBulkRoutingKey);
+    }
+
     @Bean
     public Binding failedBinding(Queue failedQueue, DirectExchange exchange) {
         return BindingBuilder.bind(failedQueue).to(exchange).with(failedRoutingKey);
@@ -77,17 +203,117 @@ public class RabbitMQConfig {
         return new Jackson2JsonMessageConverter(rabbitObjectMapper);
     }
 
+    // Reads binary and JSON push messages alike and resolves claim-checked content;
+    // writes retries and parked messages in rabbitmq.push.wire-format
+    @Bean
+    public ClaimCheckMessageConverter notificationMessageConverter(Jackson2JsonMessageConverter producerJackson2MessageConverter,
+                                                                   PayloadStore payloadStore) {
+        return new ClaimCheckMessageConverter(
+                new NotificationMessageConverter(producerJackson2MessageConverter, "binary".equalsIgnoreCase(pushWireFormat)),
+                payloadStore);
+    }
+
+    @Bean
+    public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory, ClaimCheckMessageConverter notificationMessageConverter) {
+        RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
+        rabbitTemplate.setMessageConverter(notificationMessageConverter);
+        return rabbitTemplate;
+    }
+
     @Bean
     public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(
             ConnectionFactory connectionFactory,
-            Jackson2JsonMessageConverter producerJackson2MessageConverter) {
+            ClaimCheckMessageConverter notificationMessageConverter) {
 
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
         factory.setConnectionFactory(connectionFactory);
-        factory.setMessageConverter(producerJackson2MessageConverter);
+        factory.setMessageConverter(notificationMessageConverter);
         factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
-        factory.setPrefetchCount(10);
+        factory.setPrefetchCount(prefetch);
+        // Consumers mostly wait on FCM, so enough of them are needed to fill the sendEach batches
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(maxConcurrency);
         factory.setDefaultRequeueRejected(false);
         return factory;
     }
-}
\ No newline at end of file
+
+    // Used when push.consumer.mode=batch: the listener receives up to batch.size messages at once,
+    // or fewer when the queue runs dry for receive-timeout
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchRabbitListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            ClaimCheckMessageConverter notificationMessageConverter) {
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(notificationMessageConverter);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        // The broker has to be able to hand over a whole batch without waiting for acks
+        factory.setPrefetchCount(Math.max(prefetch, consumerBatchSize));
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(maxConcurrency);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(consumerBatchSize);
+        factory.setReceiveTimeout(consumerBatchReceiveTimeout.toMillis());
+        factory.setDefaultRequeueRejected(false);
+        return factory;
+    }
+
+    // Used when push.consumer.mode=async: a few consumers, each allowed its share of the in-flight window.
+    // Once every permit is taken the broker stops delivering, so unsent work stays in the queue, not in memory.
+    @Bean
+    public SimpleRabbitListenerContainerFactory asyncRabbitListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            ClaimCheckMessageConverter notificationMessageConverter) {
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(notificationMessageConverter);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setPrefetchCount(Math.max(1, asyncMaxInFlight / asyncConcurrency));
+        factory.setConcurrentConsumers(asyncConcurrency);
+        factory.setMaxConcurrentConsumers(asyncConcurrency);
+        factory.setDefaultRequeueRejected(false);
+        return factory;
+    }
+
+    // Shard listeners: one consumer per shard keeps each shard in order, and up to max-in-flight
+    // deliveries for different users are sent concurrently behind it
+    @Bean
+    public SimpleRabbitListenerContainerFactory shardRabbitListenerContainerFactory(ConnectionFactory connectionFactory) {
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setPrefetchCount(shardMaxInFlight);
+        factory.setConcurrentConsumers(1);
+        factory.setMaxConcurrentConsumers(1);
+        factory.setDefaultRequeueRejected(false);
+        return factory;
+    }
+
+    // Every push lane is declared like the original push.queue
+    private Queue pushLaneQueue(String name) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("x-dead-letter-exchange", exchangeName);
+        args.put("x-dead-letter-routing-key", failedRoutingKey);
+        args.put("x-message-ttl", 3600000); // 1 hour
+
+        return QueueBuilder.durable(name)
+                .withArguments(args)
+                .build();
+    }
+
+    private Queue pushShardQueue(String name) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("x-dead-letter-exchange", exchangeName);
+        args.put("x-dead-letter-routing-key", failedRoutingKey);
+        args.put("x-message-ttl", 3600000); // 1 hour
+        args.put("x-single-active-consumer", true);
+
+        return QueueBuilder.durable(name)
+                .withArguments(args)
+                .build();
+    }
+}
@@ -0,0 +1,245 @@
+package dev.slethware.pushnotifications.consumer;
+
+import dev.slethware.pushnotifications.service.FirebaseService;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.DirectFieldAccessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+// Follows the firebase circuit breaker with the push listener containers, so an FCM outage leaves
+// messages waiting in the broker instead of burning through their retries:
+// - OPEN: containers stop once the async sends already handed to FCM are settled, since stopping closes the
+//   channel they have to be acked on; unacked deliveries go back to the queue. With nothing left calling FCM the breaker
+//   would never notice its wait is over, so unless it moves to HALF_OPEN on its own, the gate moves it there
+// - HALF_OPEN: containers restart with a single small consumer each to feed the probe calls
+// - CLOSED: containers double back up every ramp-interval until they are at their original size
+@Slf4j
+@Component
+public class CircuitBreakerConsumerGate {
+
+    private final RabbitListenerEndpointRegistry listenerRegistry;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final InFlightDeliveries inFlightDeliveries;
+    private final int halfOpenConcurrency;
+    private final int halfOpenPrefetch;
+    private final Duration rampInterval;
+    private final Duration drainTimeout;
+
+    // Every container change happens on this thread, in the order the transitions arrive.
+    // Transitions fire on whichever thread recorded the call, often a listener that must not stop its own container.
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "consumer-gate");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Sizes the containers had before the breaker opened, by listener id. Only touched on the gate thread.
+    private final Map<String, Sizing> original = new LinkedHashMap<>();
+    // Bumped on every transition, so a ramp scheduled before the breaker reopened stops there
+    private int generation;
+
+    private CircuitBreaker circuitBreaker;
+    private volatile CircuitBreaker.State state = CircuitBreaker.State.CLOSED;
+    private volatile boolean throttled;
+
+    public CircuitBreakerConsumerGate(RabbitListenerEndpointRegistry listenerRegistry,
+                                      CircuitBreakerRegistry circuitBreakerRegistry,
+                                      InFlightDeliveries inFlightDeliveries,
+                                      @Value("${push.consumer.breaker.half-open-concurrency}") int halfOpenConcurrency,
+                                      @Value("${push.consumer.breaker.half-open-prefetch}") int halfOpenPrefetch,
+                                      @Value("${push.consumer.breaker.ramp-interval}") Duration rampInterval,
+                                      @Value("${push.consumer.breaker.drain-timeout}") Duration drainTimeout) {
+        this.listenerRegistry = listenerRegistry;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.inFlightDeliveries = inFlightDeliveries;
+        this.halfOpenConcurrency = Math.max(1, halfOpenConcurrency);
+        this.halfOpenPrefetch = Math.max(1, halfOpenPrefetch);
+        this.rampInterval = rampInterval;
+        this.drainTimeout = drainTimeout;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        circuitBreaker = circuitBreakerRegistry.circuitBreaker(FirebaseService.FIREBASE_CIRCUIT_BREAKER);
+        circuitBreaker.getEventPublisher()
+                .onStateTransition(event -> {
+                    CircuitBreaker.State to = event.getStateTransition().getToState();
+                    state = to;
+                    executor.execute(() -> onTransition(to));
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // True while the containers are paused, probing or ramping back up; the consumer tuner stays out of the way
+    public boolean isThrottled() {
+        return throttled;
+    }
+
+    private void onTransition(CircuitBreaker.State to) {
+        // A later transition is already queued behind this one
+        if (to != state) {
+            return;
+        }
+        generation++;
+        try {
+            switch (to) {
+                case OPEN -> {
+                    pause();
+                    scheduleHalfOpen(generation);
+                }
+                case FORCED_OPEN -> pause();
+                case HALF_OPEN -> probe();
+                case CLOSED, DISABLED, METRICS_ONLY -> ramp(generation, 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Failed to follow firebase circuit breaker to {}: {}", to, e.getMessage(), e);
+        }
+    }
+
+    private void pause() throws InterruptedException {
+        throttled = true;
+        // Sends still running fail fast on the open breaker and are deferred, so this only takes a confirm or two
+        if (!inFlightDeliveries.awaitSettled(drainTimeout)) {
+            log.warn("{} push deliveries still unsettled after {}, stopping their containers anyway; they will be redelivered",
+                    inFlightDeliveries.count(), drainTimeout);
+        }
+        forEachContainer((id, container) -> {
+            // Reopening from HALF_OPEN keeps the sizes saved the first time
+            original.computeIfAbsent(id, ignored -> Sizing.of(container));
+            if (container.isRunning()) {
+                container.stop();
+            }
+        });
+        log.warn("Firebase circuit breaker is OPEN. Paused {} push listener containers, messages stay queued.", original.size());
+    }
+
+    // Stands in for the calls the paused listeners would have made once the breaker's wait is over
+    private void scheduleHalfOpen(int pauseGeneration) {
+        if (circuitBreaker.getCircuitBreakerConfig().isAutomaticTransitionFromOpenToHalfOpenEnabled()) {
+            return;
+        }
+        long waitMillis = circuitBreaker.getCircuitBreakerConfig().getWaitIntervalFunctionInOpenState().apply(1);
+        executor.schedule(() -> {
+            if (pauseGeneration != generation || circuitBreaker.getState() != CircuitBreaker.State.OPEN) {
+                return;
+            }
+            try {
+                circuitBreaker.transitionToHalfOpenState();
+            } catch (Exception e) {
+                log.error("Failed to move firebase circuit breaker to HALF_OPEN: {}", e.getMessage(), e);
+            }
+        }, waitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void probe() {
+        forEachContainer((id, container) -> {
+            if (!original.containsKey(id)) {
+                return;
+            }
+            resize(container, halfOpenConcurrency, halfOpenConcurrency, halfOpenPrefetch);
+            if (!container.isRunning()) {
+                container.start();
+            }
+        });
+        log.info("Firebase circuit breaker is HALF_OPEN. Resumed push consumers at concurrency {}, prefetch {}.",
+                halfOpenConcurrency, halfOpenPrefetch);
+    }
+
+    // Doubles every paused container from the half-open size until it is back where it started
+    private void ramp(int rampGeneration, int step) {
+        if (rampGeneration != generation) {
+            return;
+        }
+        if (original.isEmpty()) {
+            throttled = false;
+            return;
+        }
+
+        long factor = 1L << Math.min(step, 20);
+        boolean done = true;
+        for (Map.Entry<String, Sizing> entry : original.entrySet()) {
+            if (!(listenerRegistry.getListenerContainer(entry.getKey()) instanceof SimpleMessageListenerContainer container)) {
+                continue;
+            }
+            Sizing target = entry.getValue();
+            int concurrency = (int) Math.min(target.concurrency(), halfOpenConcurrency * factor);
+            int prefetch = (int) Math.min(target.prefetch(), halfOpenPrefetch * factor);
+            boolean reached = concurrency == target.concurrency() && prefetch == target.prefetch();
+            resize(container, concurrency, reached ? target.maxConcurrency() : concurrency, prefetch);
+            if (!container.isRunning()) {
+                container.start();
+            }
+            done &= reached;
+        }
+
+        if (done) {
+            original.clear();
+            throttled = false;
+            log.info("Firebase circuit breaker is CLOSED. Push consumers are back at full size.");
+        } else {
+            log.info("Firebase circuit breaker is CLOSED. Ramping push consumers up (step {}).", step);
+            executor.schedule(() -> {
+                try {
+                    ramp(rampGeneration, step + 1);
+                } catch (Exception e) {
+                    log.error("Failed to ramp push consumers up: {}", e.getMessage(), e);
+                }
+            }, rampInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Prefetch is picked up by consumers as they start. Concurrent consumers may never exceed the max,
+    // so the max goes first when growing and last when shrinking.
+    private static void resize(SimpleMessageListenerContainer container, int concurrency, int maxConcurrency, int prefetch) {
+        container.setPrefetchCount(prefetch);
+        Sizing current = Sizing.of(container);
+        if (maxConcurrency >= current.maxConcurrency()) {
+            container.setMaxConcurrentConsumers(maxConcurrency);
+            container.setConcurrentConsumers(concurrency);
+        } else {
+            container.setConcurrentConsumers(concurrency);
+            container.setMaxConcurrentConsumers(maxConcurrency);
+        }
+    }
+
+    private void forEachContainer(BiConsumer<String, SimpleMessageListenerContainer> action) {
+        for (String id : listenerRegistry.getListenerContainerIds()) {
+            MessageListenerContainer container = listenerRegistry.getListenerContainer(id);
+            if (container instanceof SimpleMessageListenerContainer simpleContainer) {
+                action.accept(id, simpleContainer);
+            }
+        }
+    }
+
+    // The container only exposes setters for these, so they are read off its fields
+    private record Sizing(int concurrency, int maxConcurrency, int prefetch) {
+        static Sizing of(SimpleMessageListenerContainer container) {
+            DirectFieldAccessor fields = new DirectFieldAccessor(container);
+            int concurrency = (Integer) fields.getPropertyValue("concurrentConsumers");
+            Integer maxConcurrency = (Integer) fields.getPropertyValue("maxConcurrentConsumers");
+            int prefetch = (Integer) fields.getPropertyValue("prefetchCount");
+            return new Sizing(concurrency, maxConcurrency == null ? concurrency : maxConcurrency, prefetch);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package dev.slethware.pushnotifications.consumer;
+
+import dev.slethware.pushnotifications.service.FcmBatchSender;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Sizes the push listener containers from how FCM is doing, instead of a fixed prefetch and concurrency.
+// Every interval it looks at FCM latency and error rate since the last tick and at each lane's backlog:
+// - latency above target or too many errors: halve consumers and prefetch (back off fast)
+// - healthy with a backlog: add consumers and double prefetch (ramp up gradually)
+// - healthy and idle: drop a consumer at a time back towards the minimum
+// A prefetch change restarts the lane's consumers, since a running consumer keeps the prefetch it started with.
+// Only drives the single-message listeners; batch and async mode already size themselves by their windows.
+// The high lane is left at its fixed size: it is mostly idle and has to answer a 2FA burst straight away.
+// So are the shards, which need their single consumer to stay in order.
+@Slf4j
+@Component
+@ConditionalOnExpression("${push.consumer.adaptive.enabled:false} and '${push.consumer.mode:single}' == 'single'")
+public class ConsumerTuner {
+
+    public enum Decision {
+        RAMP_UP,
+        BACK_OFF,
+        SCALE_DOWN,
+        HOLD
+    }
+
+    private static final int MAX_HISTORY = 50;
+
+    private final RabbitListenerEndpointRegistry listenerRegistry;
+    private final CircuitBreakerConsumerGate consumerGate;
+    private final AmqpAdmin amqpAdmin;
+    private final MeterRegistry meterRegistry;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final int concurrencyStep;
+    private final int minPrefetch;
+    private final int maxPrefetch;
+    private final Duration targetLatency;
+    private final double maxErrorRate;
+    private final int initialPrefetch;
+    private final String highLaneQueue;
+    private final String shardQueuePrefix;
+
+    // Cumulative meter readings from the previous tick
+    private double lastSendCount;
+    private double lastSendTimeMillis;
+    private double lastOkCount;
+    private double lastErrorCount;
+
+    private volatile FcmHealth lastHealth;
+    private final Map<String, LaneState> lanes = new LinkedHashMap<>();
+    private final Deque<Adjustment> history = new ArrayDeque<>();
+
+    public ConsumerTuner(RabbitListenerEndpointRegistry listenerRegistry,
+                         CircuitBreakerConsumerGate consumerGate,
+                         AmqpAdmin amqpAdmin,
+                         MeterRegistry meterRegistry,
+                         @Value("${push.consumer.adaptive.min-concurrency}") int minConcurrency,
+                         @Value("${push.consumer.adaptive.max-concurrency}") int maxConcurrency,
+                         @Value("${push.consumer.adaptive.concurrency-step}") int concurrencyStep,
+                         @Value("${push.consumer.adaptive.min-prefetch}") int minPrefetch,
+                         @Value("${push.consumer.adaptive.max-prefetch}") int maxPrefetch,
+                         @Value("${push.consumer.adaptive.target-latency}") Duration targetLatency,
+                         @Value("${push.consumer.adaptive.max-error-rate}") double maxErrorRate,
+                         @Value("${spring.rabbitmq.listener.simple.prefetch}") int initialPrefetch,
+                         @Value("${rabbitmq.queue.push-high}") String highLaneQueue,
+                         @Value("${rabbitmq.push.shard-queue-prefix}") String shardQueuePrefix) {
+        if (minConcurrency < 1 || maxConcurrency < minConcurrency || minPrefetch < 1 || maxPrefetch < minPrefetch) {
+            throw new IllegalArgumentException("push.consumer.adaptive bounds must satisfy 1 <= min <= max");
+        }
+        this.listenerRegistry = listenerRegistry;
+        this.consumerGate = consumerGate;
+        this.amqpAdmin = amqpAdmin;
+        this.meterRegistry = meterRegistry;
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.concurrencyStep = concurrencyStep;
+        this.minPrefetch = minPrefetch;
+        this.maxPrefetch = maxPrefetch;
+        this.targetLatency = targetLatency;
+        this.maxErrorRate = maxErrorRate;
+        this.initialPrefetch = initialPrefetch;
+        this.highLaneQueue = highLaneQueue;
+        this.shardQueuePrefix = shardQueuePrefix;
+    }
+
+    @Scheduled(fixedDelayString = "${push.consumer.adaptive.interval-ms}",
+            initialDelayString = "${push.consumer.adaptive.interval-ms}")
+    public synchronized void adjust() {
+        try {
+            FcmHealth health = sampleFcm();
+            lastHealth = health;
+
+            // The circuit breaker gate owns the containers until they are back at full size;
+            // start over from whatever they are then
+            if (consumerGate.isThrottled()) {
+                lanes.clear();
+                return;
+            }
+
+            for (MessageListenerContainer listenerContainer : listenerRegistry.getListenerContainers()) {
+                if (listenerContainer instanceof SimpleMessageListenerContainer container && container.isRunning()
+                        && !isFixedSize(container)) {
+                    adjust(container, health);
+                }
+            }
+        } catch (Exception e) {
+            // Leave the containers as they are until the next tick
+            log.error("Failed to adjust push consumers: {}", e.getMessage(), e);
+        }
+    }
+
+    private boolean isFixedSize(SimpleMessageListenerContainer container) {
+        for (String queueName : container.getQueueNames()) {
+            if (queueName.equals(highLaneQueue) || queueName.startsWith(shardQueuePrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(lastHealth, List.copyOf(lanes.values()), List.copyOf(history));
+    }
+
+    private void adjust(SimpleMessageListenerContainer container, FcmHealth health) {
+        String queue = String.join(",", container.getQueueNames());
+        long backlog = backlog(container.getQueueNames());
+
+        LaneState current = lanes.get(queue);
+        int concurrency = current == null ? clampConcurrency(container.getActiveConsumerCount()) : current.concurrency();
+        // Containers do not expose their prefetch, so the first tick starts from the configured one
+        int prefetch = current == null ? clampPrefetch(initialPrefetch) : current.prefetch();
+
+        Decision decision;
+        String reason;
+        if (health.messages() > 0 && health.errorRate() > maxErrorRate) {
+            decision = Decision.BACK_OFF;
+            reason = String.format("FCM error rate %.1f%% above %.1f%%", health.errorRate() * 100, maxErrorRate * 100);
+        } else if (health.calls() > 0 && health.meanLatencyMillis() > targetLatency.toMillis()) {
+            decision = Decision.BACK_OFF;
+            reason = String.format("FCM latency %.0fms above %dms", health.meanLatencyMillis(), targetLatency.toMillis());
+        } else if (backlog > (long) concurrency * prefetch) {
+            decision = Decision.RAMP_UP;
+            reason = String.format("%d messages waiting for %d consumers", backlog, concurrency);
+        } else if (backlog == 0) {
+            decision = Decision.SCALE_DOWN;
+            reason = "queue is empty";
+        } else {
+            decision = Decision.HOLD;
+            reason = "keeping up";
+        }
+
+        int targetConcurrency = switch (decision) {
+            case BACK_OFF -> clampConcurrency(concurrency / 2);
+            case RAMP_UP -> clampConcurrency(concurrency + concurrencyStep);
+            case SCALE_DOWN -> clampConcurrency(concurrency - 1);
+            case HOLD -> concurrency;
+        };
+        int targetPrefetch = switch (decision) {
+            case BACK_OFF -> clampPrefetch(prefetch / 2);
+            case RAMP_UP -> clampPrefetch(prefetch * 2);
+            case SCALE_DOWN, HOLD -> prefetch;
+        };
+
+        if (targetConcurrency != concurrency || targetPrefetch != prefetch) {
+            apply(container, concurrency, targetConcurrency, prefetch, targetPrefetch);
+            record(new Adjustment(Instant.now(), queue, decision, reason,
+                    concurrency, targetConcurrency, prefetch, targetPrefetch));
+            log.info("Push consumers on {}: {} ({}), concurrency {} -> {}, prefetch {} -> {}",
+                    queue, decision, reason, concurrency, targetConcurrency, prefetch, targetPrefetch);
+        }
+        lanes.put(queue, new LaneState(queue, targetConcurrency, targetPrefetch, backlog, decision, reason));
+    }
+
+    // The tuner owns the consumer count, so the container's own idle/active scaling is pinned to it.
+    // Concurrent consumers may never exceed the max, hence the order of the two setters.
+    // Prefetch is only read when a consumer starts, so a new prefetch restarts every consumer: otherwise the
+    // ones that survive a back-off keep their old window. Stopping lets in-flight messages finish first.
+    private void apply(SimpleMessageListenerContainer container, int from, int to, int fromPrefetch, int prefetch) {
+        boolean restart = prefetch != fromPrefetch;
+        if (restart) {
+            container.stop();
+        }
+        container.setPrefetchCount(prefetch);
+        if (to > from) {
+            container.setMaxConcurrentConsumers(to);
+            container.setConcurrentConsumers(to);
+        } else {
+            container.setConcurrentConsumers(to);
+            container.setMaxConcurrentConsumers(to);
+        }
+        // The breaker gate may have paused the lanes meanwhile; it starts them again itself
+        if (restart && !consumerGate.isThrottled()) {
+            container.start();
+        }
+    }
+
+    // Latency and error rate since the previous tick, from the meters FcmBatchSender records
+    private FcmHealth sampleFcm() {
+        Timer timer = meterRegistry.find(FcmBatchSender.SEND_TIMER).timer();
+        double sendCount = timer == null ? 0 : timer.count();
+        double sendTimeMillis = timer == null ? 0 : timer.totalTime(TimeUnit.MILLISECONDS);
+        double okCount = counter("delivered") + counter("rejected");
+        double errorCount = counter("error");
+
+        double calls = sendCount - lastSendCount;
+        double errors = errorCount - lastErrorCount;
+        double messages = (okCount - lastOkCount) + errors;
+        FcmHealth health = new FcmHealth(
+                (long) calls,
+                (long) messages,
+                calls > 0 ? (sendTimeMillis - lastSendTimeMillis) / calls : 0,
+                messages > 0 ? errors / messages : 0);
+
+        lastSendCount = sendCount;
+        lastSendTimeMillis = sendTimeMillis;
+        lastOkCount = okCount;
+        lastErrorCount = errorCount;
+        return health;
+    }
+
+    private double counter(String outcome) {
+        Counter counter = meterRegistry.find(FcmBatchSender.MESSAGES_COUNTER).tag("outcome", outcome).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private long backlog(String[] queueNames) {
+        long backlog = 0;
+        for (String queueName : queueNames) {
+            QueueInformation info = amqpAdmin.getQueueInfo(queueName);
+            if (info != null) {
+                backlog += info.getMessageCount();
+            }
+        }
+        return backlog;
+    }
+
+    private int clampConcurrency(int concurrency) {
+        return Math.max(minConcurrency, Math.min(maxConcurrency, concurrency));
+    }
+
+    private int clampPrefetch(int prefetch) {
+        return Math.max(minPrefetch, Math.min(maxPrefetch, prefetch));
+    }
+
+    private void record(Adjustment adjustment) {
+        if (history.size() == MAX_HISTORY) {
+            history.removeFirst();
+        }
+        history.addLast(adjustment);
+    }
+
+    public record FcmHealth(long calls, long messages, double meanLatencyMillis, double errorRate) {}
+
+    public record LaneState(String queue, int concurrency, int prefetch, long backlog,
+                            Decision lastDecision, String reason) {}
+
+    public record Adjustment(Instant at, String queue, Decision decision, String reason,
+                             int concurrencyFrom, int concurrencyTo, int prefetchFrom, int prefetchTo) {}
+
+    public record Snapshot(FcmHealth fcm, List<LaneState> lanes, List<Adjustment> recentAdjustments) {}
+}
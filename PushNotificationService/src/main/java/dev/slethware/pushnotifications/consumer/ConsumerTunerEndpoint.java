@@ -0,0 +1,22 @@
+package dev.slethware.pushnotifications.consumer;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.stereotype.Component;
+
+// GET /actuator/consumers: what the tuner last saw from FCM, where each lane stands and why it last changed
+@Component
+@RequiredArgsConstructor
+@ConditionalOnBean(ConsumerTuner.class)
+@Endpoint(id = "consumers")
+public class ConsumerTunerEndpoint {
+
+    private final ConsumerTuner consumerTuner;
+
+    @ReadOperation
+    public ConsumerTuner.Snapshot consumers() {
+        return consumerTuner.snapshot();
+    }
+}
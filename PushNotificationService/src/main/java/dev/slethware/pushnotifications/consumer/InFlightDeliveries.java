@@ -0,0 +1,41 @@
+package dev.slethware.pushnotifications.consumer;
+
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+// Async and shard deliveries that were handed to FCM but not settled yet. Their ack goes out on the channel
+// that received them, so the gate waits for this to reach zero before stopping a container closes that channel.
+@Component
+public class InFlightDeliveries {
+
+    private int count;
+
+    public synchronized void started() {
+        count++;
+    }
+
+    // After the delivery has been acked or nacked
+    public synchronized void settled() {
+        if (--count == 0) {
+            notifyAll();
+        }
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    // True once nothing is in flight; false if the timeout ran out first
+    public synchronized boolean awaitSettled(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (count > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(Math.max(1, remaining / 1_000_000));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,196 @@
+package dev.slethware.pushnotifications.consumer;
+
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import dev.slethware.pushnotifications.exception.FirebaseUnavailableException;
+import dev.slethware.pushnotifications.exception.InvalidDeviceTokenException;
+import dev.slethware.pushnotifications.service.PushNotificationService;
+import dev.slethware.pushnotifications.service.RetryPublisher;
+import dev.slethware.pushnotifications.service.StatusService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Delivers one push message and decides what should happen to its delivery.
+// Shared by every listener mode, so they only differ in how they receive and acknowledge.
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PushMessageProcessor {
+
+    private final PushNotificationService pushNotificationService;
+    private final StatusService statusService;
+    private final RetryPublisher retryPublisher;
+
+    @Value("${retry.max-attempts}")
+    private int maxRetries;
+
+    @Value("${retry.publisher-threads}")
+    private int publisherThreads;
+
+    // Failed async deliveries are handled here, since scheduling a retry or deferral blocks on the broker's confirm
+    // and must not hold up the FCM completion thread
+    private ExecutorService failureExecutor;
+
+    public enum Outcome {
+        ACK,
+        // Dead-lettered to failed.queue, without requeue. Only used when a retry or park could not be published.
+        REJECT,
+        // Back onto the queue as it was, without using up an attempt. Only used when the circuit breaker refused
+        // the send and the message could not be deferred to a delay queue either.
+        REQUEUE
+    }
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threads = new AtomicInteger();
+        failureExecutor = Executors.newFixedThreadPool(publisherThreads, runnable -> {
+            Thread thread = new Thread(runnable, "retry-publisher-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        failureExecutor.shutdown();
+    }
+
+    public Outcome process(NotificationMessage message, int retryCount) {
+        logReceived(message, retryCount);
+        Outcome outcome;
+        try {
+            pushNotificationService.sendPushNotification(message);
+            outcome = succeeded(message);
+        } catch (Exception e) {
+            outcome = failed(message, retryCount, e);
+        }
+        return afterFlush(message, outcome).join();
+    }
+
+    // Never completes exceptionally: every failure is already turned into an outcome
+    public CompletableFuture<Outcome> processAsync(NotificationMessage message, int retryCount) {
+        logReceived(message, retryCount);
+        try {
+            return pushNotificationService.sendPushNotificationAsync(message)
+                    .handle((ignored, error) -> error)
+                    .thenCompose(error -> {
+                        if (error == null) {
+                            return afterFlush(message, succeeded(message));
+                        }
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        return CompletableFuture.supplyAsync(() -> failed(message, retryCount, cause), failureExecutor)
+                                .exceptionally(unexpected -> {
+                                    log.error("[{}] Failed to handle failed delivery of {}: {}",
+                                            message.getCorrelationId(), message.getNotificationId(), unexpected.getMessage());
+                                    return Outcome.REJECT;
+                                })
+                                .thenCompose(outcome -> afterFlush(message, outcome));
+                    });
+        } catch (Exception e) {
+            return afterFlush(message, failed(message, retryCount, e));
+        }
+    }
+
+    // Status writes are buffered; the final one has to be flushed before the message is settled.
+    // The push has already gone out by now, so a failed write never sends the message back: the update stays
+    // buffered and StatusService retries it on its next flush. Never completes exceptionally.
+    private CompletableFuture<Outcome> afterFlush(NotificationMessage message, Outcome outcome) {
+        return statusService.whenFlushed(message.getNotificationId()).handle((flushed, error) -> {
+            if (error != null) {
+                log.warn("[{}] Status of {} not written to Redis yet, retrying on the next flush: {}",
+                        message.getCorrelationId(), message.getNotificationId(), error.getMessage());
+            }
+            return outcome;
+        });
+    }
+
+    private void logReceived(NotificationMessage message, int retryCount) {
+        log.info("[{}] Received push notification: {}. Attempt {}/{}",
+                message.getCorrelationId(), message.getNotificationId(), retryCount + 1, maxRetries);
+    }
+
+    private Outcome succeeded(NotificationMessage message) {
+        // Success message
+        log.info("[{}] Successfully processed push notification {}", message.getCorrelationId(), message.getNotificationId());
+        return Outcome.ACK;
+    }
+
+    private Outcome failed(NotificationMessage message, int retryCount, Throwable e) {
+        String correlationId = message.getCorrelationId();
+        String notificationId = message.getNotificationId();
+
+        if (hasCause(e, FirebaseUnavailableException.class)) {
+            // Firebase is down, not this message: park it in a delay queue without using up an attempt.
+            // Requeueing would hand it straight back to a consumer until the gate has stopped the containers.
+            try {
+                retryPublisher.defer(message, retryCount, e.getMessage());
+                log.warn("[{}] Firebase circuit breaker is open. Deferred {}.", correlationId, notificationId);
+                return Outcome.ACK;
+            } catch (Exception publishError) {
+                log.error("[{}] Failed to defer {}, requeueing it instead: {}",
+                        correlationId, notificationId, publishError.getMessage());
+                return Outcome.REQUEUE;
+            }
+        }
+
+        if (hasCause(e, InvalidDeviceTokenException.class)) {
+            // Invalid token or payload, don't retry, acknowledge and update status to failed.
+            log.warn("[{}] Invalid device token or message for {}. Rejecting message without retry.",
+                    correlationId, notificationId, e);
+            statusService.updateStatus(notificationId, "failed", "Invalid device token or message");
+            return Outcome.ACK;
+        }
+
+        log.error("[{}] Error processing push notification {}: {}",
+                correlationId, notificationId, e.getMessage(), e);
+
+        if (retryCount < (maxRetries - 1)) {
+            // Retryable Failure
+            log.warn("[{}] Scheduling retry of {} (attempt {}).",
+                    correlationId, notificationId, retryCount + 1);
+            statusService.updateStatus(notificationId, "pending",
+                    String.format("Retry %d: %s", retryCount + 1, e.getMessage()));
+            try {
+                retryPublisher.scheduleRetry(message, retryCount, e.getMessage());
+                return Outcome.ACK;
+            } catch (Exception publishError) {
+                log.error("[{}] Failed to schedule retry of {}, dead-lettering it instead: {}",
+                        correlationId, notificationId, publishError.getMessage());
+                return Outcome.REJECT;
+            }
+        } else {
+            // Max Retries
+            log.error("[{}] Max retries ({}) reached for {}. Moving to failed queue.",
+                    correlationId, maxRetries, notificationId);
+            statusService.updateStatus(notificationId, "failed",
+                    String.format("Max retries reached: %s", e.getMessage()));
+            try {
+                retryPublisher.park(message, retryCount, e.getMessage());
+                return Outcome.ACK;
+            } catch (Exception publishError) {
+                log.error("[{}] Failed to park {}, dead-lettering it instead: {}",
+                        correlationId, notificationId, publishError.getMessage());
+                return Outcome.REJECT;
+            }
+        }
+    }
+
+    // PushNotificationService wraps send failures, so the real error can sit further down the chain
+    private static boolean hasCause(Throwable e, Class<? extends Throwable> type) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
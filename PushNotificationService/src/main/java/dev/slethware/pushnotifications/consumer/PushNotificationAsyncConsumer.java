@@ -0,0 +1,112 @@
+package dev.slethware.pushnotifications.consumer;
+
+import com.rabbitmq.client.Channel;
+import dev.slethware.pushnotifications.consumer.PushMessageProcessor.Outcome;
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+// Hands each message to FCM and returns straight away; the ack or nack happens when the send completes.
+// A few listener threads can keep max-in-flight sends going at once.
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "push.consumer.mode", havingValue = "async")
+public class PushNotificationAsyncConsumer {
+
+    private final PushMessageProcessor pushMessageProcessor;
+    private final InFlightDeliveries inFlightDeliveries;
+
+    // Backstop for the prefetch window: a listener thread waits here instead of buffering more work.
+    // One window per lane, so a full bulk window never blocks a high-priority send.
+    private final Semaphore inFlight;
+    private final Semaphore highInFlight;
+    private final Semaphore bulkInFlight;
+
+    private static final String RETRY_COUNT_HEADER = "x-retry-count";
+
+    public PushNotificationAsyncConsumer(PushMessageProcessor pushMessageProcessor,
+                                         InFlightDeliveries inFlightDeliveries,
+                                         @Value("${push.consumer.async.max-in-flight}") int maxInFlight,
+                                         @Value("${push.lanes.high.max-in-flight}") int highMaxInFlight,
+                                         @Value("${push.lanes.bulk.max-in-flight}") int bulkMaxInFlight) {
+        this.pushMessageProcessor = pushMessageProcessor;
+        this.inFlightDeliveries = inFlightDeliveries;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.highInFlight = new Semaphore(highMaxInFlight);
+        this.bulkInFlight = new Semaphore(bulkMaxInFlight);
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.push}", containerFactory = "asyncRabbitListenerContainerFactory")
+    public void consumePushNotification(
+            @Payload NotificationMessage message,
+            Channel channel,
+            @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag,
+            @Header(value = RETRY_COUNT_HEADER, defaultValue = "0") int retryCount) throws InterruptedException {
+
+        consume(message, channel, deliveryTag, retryCount, inFlight);
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.push-high}", containerFactory = "asyncRabbitListenerContainerFactory",
+            concurrency = "${push.lanes.high.concurrency}")
+    public void consumeHighPriorityPushNotification(
+            @Payload NotificationMessage message,
+            Channel channel,
+            @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag,
+            @Header(value = RETRY_COUNT_HEADER, defaultValue = "0") int retryCount) throws InterruptedException {
+
+        consume(message, channel, deliveryTag, retryCount, highInFlight);
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.push-bulk}", containerFactory = "asyncRabbitListenerContainerFactory",
+            concurrency = "${push.lanes.bulk.concurrency}")
+    public void consumeBulkPushNotification(
+            @Payload NotificationMessage message,
+            Channel channel,
+            @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag,
+            @Header(value = RETRY_COUNT_HEADER, defaultValue = "0") int retryCount) throws InterruptedException {
+
+        consume(message, channel, deliveryTag, retryCount, bulkInFlight);
+    }
+
+    private void consume(NotificationMessage message, Channel channel, long deliveryTag, int retryCount,
+                         Semaphore inFlight) throws InterruptedException {
+        inFlight.acquire();
+        inFlightDeliveries.started();
+        try {
+            pushMessageProcessor.processAsync(message, retryCount)
+                    .whenComplete((outcome, error) -> {
+                        inFlight.release();
+                        settle(channel, deliveryTag, error == null ? outcome : Outcome.REJECT, message);
+                        inFlightDeliveries.settled();
+                    });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            inFlightDeliveries.settled();
+            throw e;
+        }
+    }
+
+    // Runs on the FCM completion thread; the channel is still owned by the listener that received the delivery
+    private void settle(Channel channel, long deliveryTag, Outcome outcome, NotificationMessage message) {
+        try {
+            switch (outcome) {
+                case ACK -> channel.basicAck(deliveryTag, false);
+                case REJECT -> channel.basicNack(deliveryTag, false, false);
+                case REQUEUE -> channel.basicNack(deliveryTag, false, true);
+            }
+        } catch (IOException e) {
+            // The channel is gone; the broker redelivers the message once the consumer reconnects
+            log.error("[{}] Failed to {} push notification {}: {}",
+                    message.getCorrelationId(), outcome, message.getNotificationId(), e.getMessage());
+        }
+    }
+}
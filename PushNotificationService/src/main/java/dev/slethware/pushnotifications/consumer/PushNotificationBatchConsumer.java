@@ -0,0 +1,96 @@
+package dev.slethware.pushnotifications.consumer;
+
+import com.rabbitmq.client.Channel;
+import dev.slethware.pushnotifications.consumer.PushMessageProcessor.Outcome;
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Receives push messages in batches, delivers them all at once and acknowledges them in as few frames as possible.
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "push.consumer.mode", havingValue = "batch")
+public class PushNotificationBatchConsumer {
+
+    private final PushMessageProcessor pushMessageProcessor;
+
+    // Every message of a batch is in flight together, so the FCM sends land in the same sendEach call
+    private final ExecutorService deliveryExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static final String RETRY_COUNT_HEADER = "x-retry-count";
+
+    @PreDestroy
+    public void shutdown() {
+        deliveryExecutor.shutdown();
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.push}", containerFactory = "batchRabbitListenerContainerFactory")
+    public void consumePushNotifications(List<Message<NotificationMessage>> messages, Channel channel) throws IOException {
+        consume(messages, channel);
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.push-high}", containerFactory = "batchRabbitListenerContainerFactory",
+            concurrency = "${push.lanes.high.concurrency}")
+    public void consumeHighPriorityPushNotifications(List<Message<NotificationMessage>> messages, Channel channel) throws IOException {
+        consume(messages, channel);
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.push-bulk}", containerFactory = "batchRabbitListenerContainerFactory",
+            concurrency = "${push.lanes.bulk.concurrency}")
+    public void consumeBulkPushNotifications(List<Message<NotificationMessage>> messages, Channel channel) throws IOException {
+        consume(messages, channel);
+    }
+
+    private void consume(List<Message<NotificationMessage>> messages, Channel channel) throws IOException {
+        log.info("Received batch of {} push notifications", messages.size());
+
+        List<CompletableFuture<Outcome>> results = new ArrayList<>(messages.size());
+        for (Message<NotificationMessage> message : messages) {
+            results.add(CompletableFuture.supplyAsync(
+                    () -> pushMessageProcessor.process(message.getPayload(), retryCount(message)), deliveryExecutor));
+        }
+
+        // Delivery tags on a channel increase with delivery order, so one multiple=true ack
+        // covers the whole successful prefix of the batch
+        int prefix = 0;
+        while (prefix < messages.size() && results.get(prefix).join() == Outcome.ACK) {
+            prefix++;
+        }
+        if (prefix > 0) {
+            channel.basicAck(deliveryTag(messages.get(prefix - 1)), true);
+        }
+
+        // Everything after the first failure is settled one by one
+        for (int i = prefix; i < messages.size(); i++) {
+            long deliveryTag = deliveryTag(messages.get(i));
+            switch (results.get(i).join()) {
+                case ACK -> channel.basicAck(deliveryTag, false);
+                case REJECT -> channel.basicNack(deliveryTag, false, false);
+                case REQUEUE -> channel.basicNack(deliveryTag, false, true);
+            }
+        }
+    }
+
+    private static long deliveryTag(Message<?> message) {
+        return message.getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+    }
+
+    private static int retryCount(Message<?> message) {
+        Object retryCount = message.getHeaders().get(RETRY_COUNT_HEADER);
+        return retryCount instanceof Number number ? number.intValue() : 0;
+    }
+}
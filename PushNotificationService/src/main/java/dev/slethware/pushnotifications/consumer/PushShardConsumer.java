@@ -0,0 +1,161 @@
+package dev.slethware.pushnotifications.consumer;
+
+import com.rabbitmq.client.Channel;
+import dev.slethware.pushnotifications.consumer.PushMessageProcessor.Outcome;
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import dev.slethware.pushnotifications.util.ClaimCheckMessageConverter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// Consumes the sharded normal lane: one listener container per shard queue, each with a single consumer,
+// so every shard is read in order. Deliveries for different users are sent concurrently (up to the prefetch),
+// but a user's next message only starts once the previous one is settled, which keeps each user in order.
+// Used in every consumer mode; batch and async mode only apply to the unsharded queues.
+// The broker gives a single-active-consumer queue to whichever consumer registered first, so instances do not
+// share shards by themselves: each instance only consumes the shards with shard % instance-count == instance-index.
+@Slf4j
+@Component
+@ConditionalOnExpression("${rabbitmq.push.shards:0} > 0")
+public class PushShardConsumer implements RabbitListenerConfigurer {
+
+    private static final String RETRY_COUNT_HEADER = "x-retry-count";
+
+    private final PushMessageProcessor pushMessageProcessor;
+    private final InFlightDeliveries inFlightDeliveries;
+    private final ClaimCheckMessageConverter messageConverter;
+    private final SimpleRabbitListenerContainerFactory containerFactory;
+    private final int shards;
+    private final String shardQueuePrefix;
+    private final int maxInFlight;
+    private final int instanceIndex;
+    private final int instanceCount;
+
+    // Last delivery started for each user; removed again once it completes with nothing queued behind it
+    private final Map<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    // Picks up a user's next message when the previous one completes, off the FCM completion thread
+    private final ExecutorService deliveryExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public PushShardConsumer(PushMessageProcessor pushMessageProcessor,
+                             InFlightDeliveries inFlightDeliveries,
+                             ClaimCheckMessageConverter messageConverter,
+                             @Qualifier("shardRabbitListenerContainerFactory") SimpleRabbitListenerContainerFactory containerFactory,
+                             @Value("${rabbitmq.push.shards}") int shards,
+                             @Value("${rabbitmq.push.shard-queue-prefix}") String shardQueuePrefix,
+                             @Value("${push.shards.max-in-flight}") int maxInFlight,
+                             @Value("${push.shards.instance-index}") int instanceIndex,
+                             @Value("${push.shards.instance-count}") int instanceCount) {
+        if (instanceCount < 1 || instanceIndex < 0 || instanceIndex >= instanceCount) {
+            throw new IllegalArgumentException("push.shards.instance-index must be between 0 and instance-count - 1");
+        }
+        this.pushMessageProcessor = pushMessageProcessor;
+        this.inFlightDeliveries = inFlightDeliveries;
+        this.messageConverter = messageConverter;
+        this.containerFactory = containerFactory;
+        this.shards = shards;
+        this.shardQueuePrefix = shardQueuePrefix;
+        this.maxInFlight = maxInFlight;
+        this.instanceIndex = instanceIndex;
+        this.instanceCount = instanceCount;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deliveryExecutor.shutdown();
+    }
+
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        List<Integer> assigned = new ArrayList<>();
+        for (int shard = instanceIndex; shard < shards; shard += instanceCount) {
+            assigned.add(shard);
+            // Backstop for the prefetch window, one per shard like the per-lane windows in async mode
+            Semaphore inFlight = new Semaphore(maxInFlight);
+
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId("push-shard-" + shard);
+            endpoint.setQueueNames(shardQueuePrefix + shard);
+            endpoint.setMessageListener((ChannelAwareMessageListener) (message, channel) -> consume(message, channel, inFlight));
+            registrar.registerEndpoint(endpoint, containerFactory);
+        }
+        if (assigned.isEmpty()) {
+            log.warn("Instance {} of {} has no push shards to consume ({} shards)", instanceIndex, instanceCount, shards);
+        } else {
+            log.info("Instance {} of {} consumes push shards {}", instanceIndex, instanceCount, assigned);
+        }
+    }
+
+    private void consume(Message amqpMessage, Channel channel, Semaphore inFlight) throws InterruptedException {
+        // JSON bodies carry the gateway's type id; read them as our NotificationMessage, as @RabbitListener methods do.
+        // A conversion failure is rejected by the container and dead-lettered, as on the other lanes.
+        amqpMessage.getMessageProperties().setInferredArgumentType(NotificationMessage.class);
+        NotificationMessage message = (NotificationMessage) messageConverter.fromMessage(amqpMessage);
+        long deliveryTag = amqpMessage.getMessageProperties().getDeliveryTag();
+        Object retryHeader = amqpMessage.getMessageProperties().getHeader(RETRY_COUNT_HEADER);
+        int retryCount = retryHeader instanceof Number number ? number.intValue() : 0;
+        String user = message.getUserId() != null ? message.getUserId() : message.getNotificationId();
+
+        inFlight.acquire();
+        inFlightDeliveries.started();
+        CompletableFuture<Void> turn = new CompletableFuture<>();
+        CompletableFuture<Void> previous = tails.put(user, turn);
+
+        CompletableFuture<Outcome> delivery = previous == null
+                ? deliver(message, retryCount)
+                : previous.thenComposeAsync(ignored -> deliver(message, retryCount), deliveryExecutor);
+
+        delivery.whenComplete((outcome, error) -> {
+            inFlight.release();
+            settle(channel, deliveryTag, error == null ? outcome : Outcome.REJECT, message);
+            inFlightDeliveries.settled();
+            tails.remove(user, turn);
+            turn.complete(null);
+        });
+    }
+
+    // Never completes exceptionally, so one failed delivery cannot stall the user's later messages
+    private CompletableFuture<Outcome> deliver(NotificationMessage message, int retryCount) {
+        try {
+            return pushMessageProcessor.processAsync(message, retryCount);
+        } catch (RuntimeException e) {
+            log.error("[{}] Failed to deliver push notification {}: {}",
+                    message.getCorrelationId(), message.getNotificationId(), e.getMessage(), e);
+            return CompletableFuture.completedFuture(Outcome.REJECT);
+        }
+    }
+
+    // Runs on the FCM completion thread; the channel is still owned by the shard's consumer
+    private void settle(Channel channel, long deliveryTag, Outcome outcome, NotificationMessage message) {
+        try {
+            switch (outcome) {
+                case ACK -> channel.basicAck(deliveryTag, false);
+                case REJECT -> channel.basicNack(deliveryTag, false, false);
+                case REQUEUE -> channel.basicNack(deliveryTag, false, true);
+            }
+        } catch (IOException e) {
+            // The channel is gone; the broker redelivers the message once the consumer reconnects
+            log.error("[{}] Failed to {} push notification {}: {}",
+                    message.getCorrelationId(), outcome, message.getNotificationId(), e.getMessage());
+        }
+    }
+}
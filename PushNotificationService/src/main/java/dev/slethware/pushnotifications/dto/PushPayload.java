@@ -13,4 +13,6 @@ public class PushPayload {
     private String body;
     private String imageUrl;
     private Map<String, String> data;
+    // High-priority lane: jumps ahead of queued sends in the FCM batcher
+    private boolean urgent;
 }
\ No newline at end of file
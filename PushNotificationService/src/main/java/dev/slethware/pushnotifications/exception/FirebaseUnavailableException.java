@@ -0,0 +1,8 @@
+package dev.slethware.pushnotifications.exception;
+
+// The firebase circuit breaker refused the call. Nothing was sent, so the message should wait, not fail.
+public class FirebaseUnavailableException extends FirebaseException {
+    public FirebaseUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
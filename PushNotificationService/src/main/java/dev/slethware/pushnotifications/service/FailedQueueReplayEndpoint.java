@@ -0,0 +1,64 @@
+package dev.slethware.pushnotifications.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+// /actuator/replay: replay failed.queue after an outage.
+//   POST   {"type": "PUSH", "reason": "UNAVAILABLE", "failedAfter": "...", "failedBefore": "...", "rate": 200, "limit": 100000}
+//          starts a replay; every field is optional, times are ISO-8601 instants
+//   GET    progress of the running or last replay
+//   DELETE stops the running replay after the current chunk
+// Not exposed by default: there is no authentication in front of it, so it belongs on an unpublished management port.
+@Component
+@RequiredArgsConstructor
+@Endpoint(id = "replay")
+public class FailedQueueReplayEndpoint {
+
+    private final FailedQueueReplayer replayer;
+
+    @ReadOperation
+    public FailedQueueReplayer.Snapshot replay() {
+        return replayer.snapshot();
+    }
+
+    @WriteOperation
+    public FailedQueueReplayer.Snapshot start(@Nullable String type,
+                                              @Nullable String reason,
+                                              @Nullable String failedAfter,
+                                              @Nullable String failedBefore,
+                                              @Nullable Integer rate,
+                                              @Nullable Long limit) {
+        FailedQueueReplayer.ReplayRequest request = new FailedQueueReplayer.ReplayRequest(
+                type, reason, instant("failedAfter", failedAfter), instant("failedBefore", failedBefore), limit);
+        try {
+            return replayer.start(request, rate);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        }
+    }
+
+    @DeleteOperation
+    public FailedQueueReplayer.Snapshot cancel() {
+        return replayer.cancel();
+    }
+
+    private static Instant instant(String name, String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new InvalidEndpointRequestException(name + " must be an ISO-8601 instant", name + " is invalid");
+        }
+    }
+}
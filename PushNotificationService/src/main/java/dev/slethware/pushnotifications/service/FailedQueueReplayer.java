@@ -0,0 +1,408 @@
+package dev.slethware.pushnotifications.service;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.GetResponse;
+import dev.slethware.pushnotifications.consumer.CircuitBreakerConsumerGate;
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import dev.slethware.pushnotifications.util.NotificationMessageConverter;
+import io.github.resilience4j.ratelimiter.RateLimiter;
+import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Replays failed.queue after an outage, e.g. once FCM is back. One job at a time, started from /actuator/replay.
+// The queue is streamed chunk by chunk: matching messages go back to their work queue (push to the bulk lane,
+// email to email.queue) with a fresh retry count, everything else is re-appended to failed.queue as it was.
+// Only the messages present when the job starts are read, so re-appended ones are not seen twice.
+// Live traffic keeps priority: replays are rate limited, land on the bulk lane, and wait while that lane is
+// backed up or the firebase circuit breaker has the consumers throttled.
+@Slf4j
+@Service
+public class FailedQueueReplayer {
+
+    public static final String RATE_LIMITER = "failed-replay";
+    public static final String REPLAYED_AT_HEADER = "x-replayed-at";
+
+    private static final String REPLAYED_STATUS_MESSAGE = "Replayed from failed queue";
+    private static final Duration BACKLOG_POLL_INTERVAL = Duration.ofSeconds(1);
+    private static final List<String> DEATH_HEADERS = List.of("x-death", "x-first-death-exchange", "x-first-death-queue",
+            "x-first-death-reason", "x-last-death-exchange", "x-last-death-queue", "x-last-death-reason");
+
+    public enum State {
+        RUNNING,
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    private final RabbitTemplate rabbitTemplate;
+    private final AmqpAdmin amqpAdmin;
+    private final StatusService statusService;
+    private final CircuitBreakerConsumerGate consumerGate;
+    private final RateLimiter rateLimiter;
+    private final int defaultRate;
+    private final NotificationMessageConverter messageConverter;
+    private final MessagePropertiesConverter propertiesConverter = new DefaultMessagePropertiesConverter();
+    private final String exchangeName;
+    private final String failedQueueName;
+    private final String pushBulkRoutingKey;
+    private final String pushBulkQueueName;
+    private final String emailRoutingKey;
+    private final String emailQueueName;
+    private final int chunkSize;
+    private final long maxLaneBacklog;
+    private final Duration confirmTimeout;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "failed-queue-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Job current;
+
+    public FailedQueueReplayer(RabbitTemplate rabbitTemplate,
+                               AmqpAdmin amqpAdmin,
+                               StatusService statusService,
+                               CircuitBreakerConsumerGate consumerGate,
+                               RateLimiterRegistry rateLimiterRegistry,
+                               Jackson2JsonMessageConverter producerJackson2MessageConverter,
+                               @Value("${rabbitmq.exchange}") String exchangeName,
+                               @Value("${rabbitmq.queue.failed}") String failedQueueName,
+                               @Value("${rabbitmq.routing-key.push-bulk}") String pushBulkRoutingKey,
+                               @Value("${rabbitmq.queue.push-bulk}") String pushBulkQueueName,
+                               @Value("${rabbitmq.routing-key.email}") String emailRoutingKey,
+                               @Value("${rabbitmq.queue.email}") String emailQueueName,
+                               @Value("${push.replay.chunk-size}") int chunkSize,
+                               @Value("${push.replay.max-lane-backlog}") long maxLaneBacklog,
+                               @Value("${retry.confirm-timeout}") Duration confirmTimeout) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.amqpAdmin = amqpAdmin;
+        this.statusService = statusService;
+        this.consumerGate = consumerGate;
+        this.rateLimiter = rateLimiterRegistry.rateLimiter(RATE_LIMITER);
+        this.defaultRate = rateLimiter.getRateLimiterConfig().getLimitForPeriod();
+        // Only reads bodies to filter on them; claim-checked content is resolved when the replayed message is consumed
+        this.messageConverter = new NotificationMessageConverter(producerJackson2MessageConverter, false);
+        this.exchangeName = exchangeName;
+        this.failedQueueName = failedQueueName;
+        this.pushBulkRoutingKey = pushBulkRoutingKey;
+        this.pushBulkQueueName = pushBulkQueueName;
+        this.emailRoutingKey = emailRoutingKey;
+        this.emailQueueName = emailQueueName;
+        this.chunkSize = chunkSize;
+        this.maxLaneBacklog = maxLaneBacklog;
+        this.confirmTimeout = confirmTimeout;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Job job = current;
+        if (job != null) {
+            job.cancelled = true;
+        }
+        executor.shutdownNow();
+    }
+
+    // rate is replays per second, null for the failed-replay rate limiter's configured limit
+    public synchronized Snapshot start(ReplayRequest request, Integer rate) {
+        if (current != null && current.state == State.RUNNING) {
+            throw new IllegalStateException("Replay " + current.id + " is still running");
+        }
+        if (rate != null && rate < 1) {
+            throw new IllegalArgumentException("rate must be at least 1 message per second");
+        }
+        int limitForPeriod = rate != null ? rate : defaultRate;
+        rateLimiter.changeLimitForPeriod(limitForPeriod);
+
+        Job job = new Job(UUID.randomUUID().toString(), request, limitForPeriod);
+        current = job;
+        executor.execute(() -> run(job));
+        log.info("Started replay {} of {} ({}, {} per second)", job.id, failedQueueName, request, limitForPeriod);
+        return job.snapshot();
+    }
+
+    public synchronized Snapshot cancel() {
+        Job job = current;
+        if (job == null) {
+            return null;
+        }
+        job.cancelled = true;
+        return job.snapshot();
+    }
+
+    public Snapshot snapshot() {
+        Job job = current;
+        return job == null ? null : job.snapshot();
+    }
+
+    private void run(Job job) {
+        try {
+            long remaining = queueDepth(failedQueueName);
+            job.queued = remaining;
+
+            while (remaining > 0 && !job.done()) {
+                if (!waitForCapacity(job)) {
+                    break;
+                }
+                int max = (int) Math.min(chunkSize, remaining);
+                Integer taken = rabbitTemplate.execute(channel -> replayChunk(channel, job, max));
+                if (taken == null || taken == 0) {
+                    // Drained by someone else since we counted
+                    break;
+                }
+                remaining -= taken;
+            }
+
+            job.finish(job.cancelled ? State.CANCELLED : State.COMPLETED, null);
+            log.info("Replay {} {}: {} scanned, {} replayed, {} kept", job.id, job.state,
+                    job.scanned.get(), job.replayed.get(), job.kept.get());
+        } catch (Exception e) {
+            job.finish(State.FAILED, e.getMessage());
+            log.error("Replay {} failed after {} scanned, {} replayed: {}",
+                    job.id, job.scanned.get(), job.replayed.get(), e.getMessage(), e);
+        }
+    }
+
+    // Takes up to max messages, republishes each one (replayed or kept), and only acks the originals once
+    // the broker has confirmed every republish. On any failure before that the originals are nacked back into
+    // failed.queue; left unacked they would stay invisible until the cached channel happened to close.
+    private int replayChunk(Channel channel, Job job, int max) throws IOException, InterruptedException, TimeoutException {
+        List<String> replayedIds = new ArrayList<>();
+        long lastDeliveryTag = -1;
+        int taken = 0;
+
+        try {
+            while (taken < max && !job.done()) {
+                GetResponse response = channel.basicGet(failedQueueName, false);
+                if (response == null) {
+                    break;
+                }
+                taken++;
+                lastDeliveryTag = response.getEnvelope().getDeliveryTag();
+                job.scanned.incrementAndGet();
+
+                MessageProperties properties = propertiesConverter.toMessageProperties(
+                        response.getProps(), response.getEnvelope(), StandardCharsets.UTF_8.name());
+                NotificationMessage notification = read(new Message(response.getBody(), properties));
+                String routingKey = targetRoutingKey(notification);
+
+                if (routingKey == null || !job.request.matches(notification, failedAt(properties), reason(properties))) {
+                    // Back to the end of failed.queue untouched, behind the snapshot this job reads
+                    channel.basicPublish("", failedQueueName, response.getProps(), response.getBody());
+                    job.kept.incrementAndGet();
+                    continue;
+                }
+
+                // Waits out the rate limit; the messages taken so far stay unacked meanwhile
+                while (!rateLimiter.acquirePermission()) {
+                    if (job.cancelled) {
+                        channel.basicPublish("", failedQueueName, response.getProps(), response.getBody());
+                        job.kept.incrementAndGet();
+                        break;
+                    }
+                }
+                if (job.cancelled) {
+                    break;
+                }
+
+                channel.basicPublish(exchangeName, routingKey, replayProperties(properties), response.getBody());
+                replayedIds.add(notification.getNotificationId());
+                job.replayed.incrementAndGet();
+            }
+
+            if (taken > 0) {
+                channel.waitForConfirmsOrDie(confirmTimeout.toMillis());
+                channel.basicAck(lastDeliveryTag, true);
+            }
+        } catch (IOException | InterruptedException | TimeoutException | RuntimeException e) {
+            if (lastDeliveryTag >= 0) {
+                requeue(channel, lastDeliveryTag, e);
+            }
+            throw e;
+        }
+
+        // Buffered and pipelined by the status service
+        replayedIds.forEach(id -> statusService.updateStatus(id, "pending", REPLAYED_STATUS_MESSAGE));
+        return taken;
+    }
+
+    // Whatever was republished before the failure may now be in failed.queue or its work queue twice
+    private void requeue(Channel channel, long lastDeliveryTag, Exception cause) {
+        try {
+            channel.basicNack(lastDeliveryTag, true, true);
+        } catch (Exception nackError) {
+            // Already closed (waitForConfirmsOrDie closes it), which returns the deliveries just the same
+            cause.addSuppressed(nackError);
+        }
+    }
+
+    // True once there is room on the target lanes; false if the job was cancelled while waiting
+    private boolean waitForCapacity(Job job) throws InterruptedException {
+        while (!job.cancelled) {
+            if (consumerGate.isThrottled()) {
+                job.waiting = "firebase circuit breaker is not closed";
+            } else if (queueDepth(pushBulkQueueName) > maxLaneBacklog || queueDepth(emailQueueName) > maxLaneBacklog) {
+                job.waiting = "work queue backlog above " + maxLaneBacklog;
+            } else {
+                job.waiting = null;
+                return true;
+            }
+            Thread.sleep(BACKLOG_POLL_INTERVAL.toMillis());
+        }
+        return false;
+    }
+
+    private NotificationMessage read(Message message) {
+        // JSON bodies carry the gateway's type id; read them as our NotificationMessage
+        message.getMessageProperties().setInferredArgumentType(NotificationMessage.class);
+        try {
+            return (NotificationMessage) messageConverter.fromMessage(message);
+        } catch (RuntimeException e) {
+            log.warn("Keeping unreadable message in {}: {}", failedQueueName, e.getMessage());
+            return null;
+        }
+    }
+
+    private String targetRoutingKey(NotificationMessage notification) {
+        if (notification == null || notification.getNotificationType() == null) {
+            return null;
+        }
+        return switch (notification.getNotificationType().toUpperCase()) {
+            case "PUSH" -> pushBulkRoutingKey;
+            case "EMAIL" -> emailRoutingKey;
+            default -> null;
+        };
+    }
+
+    // A fresh start: retry count back to zero and the trail of the previous failure dropped
+    private AMQP.BasicProperties replayProperties(MessageProperties properties) {
+        Map<String, Object> headers = properties.getHeaders();
+        DEATH_HEADERS.forEach(headers::remove);
+        headers.remove(RetryPublisher.LAST_ERROR_HEADER);
+        headers.remove(RetryPublisher.FAILED_AT_HEADER);
+        headers.put(RetryPublisher.RETRY_COUNT_HEADER, 0);
+        headers.put(REPLAYED_AT_HEADER, Instant.now().toString());
+        return propertiesConverter.fromMessageProperties(properties, StandardCharsets.UTF_8.name());
+    }
+
+    // Parked by RetryPublisher, dead-lettered by the broker, or as a last resort the publish timestamp
+    private static Instant failedAt(MessageProperties properties) {
+        Object failedAt = properties.getHeader(RetryPublisher.FAILED_AT_HEADER);
+        if (failedAt != null) {
+            try {
+                return Instant.parse(failedAt.toString());
+            } catch (DateTimeParseException e) {
+                // Fall through to the broker's record
+            }
+        }
+        List<Map<String, ?>> deaths = properties.getXDeathHeader();
+        if (deaths != null && !deaths.isEmpty() && deaths.getFirst().get("time") instanceof Date time) {
+            return time.toInstant();
+        }
+        return properties.getTimestamp() == null ? null : properties.getTimestamp().toInstant();
+    }
+
+    private static String reason(MessageProperties properties) {
+        Object lastError = properties.getHeader(RetryPublisher.LAST_ERROR_HEADER);
+        if (lastError != null) {
+            return lastError.toString();
+        }
+        // rejected, expired or maxlen
+        Object deathReason = properties.getHeader("x-first-death-reason");
+        return deathReason == null ? null : deathReason.toString();
+    }
+
+    private long queueDepth(String queueName) {
+        QueueInformation info = amqpAdmin.getQueueInfo(queueName);
+        return info == null ? 0 : info.getMessageCount();
+    }
+
+    // Every filter is optional; reason is a case-insensitive substring of the failure's error or dead-letter reason.
+    // limit caps the number of messages replayed.
+    public record ReplayRequest(String type, String reason, Instant failedAfter, Instant failedBefore, Long limit) {
+
+        boolean matches(NotificationMessage notification, Instant failedAt, String failureReason) {
+            if (type != null && !type.equalsIgnoreCase(notification.getNotificationType())) {
+                return false;
+            }
+            if (failedAfter != null && (failedAt == null || failedAt.isBefore(failedAfter))) {
+                return false;
+            }
+            if (failedBefore != null && (failedAt == null || !failedAt.isBefore(failedBefore))) {
+                return false;
+            }
+            return reason == null
+                    || (failureReason != null && failureReason.toLowerCase().contains(reason.toLowerCase()));
+        }
+    }
+
+    public record Snapshot(String id, State state, ReplayRequest request, int ratePerSecond,
+                           Instant startedAt, Instant finishedAt, long queued, long scanned, long replayed,
+                           long kept, String waitingFor, String error) {}
+
+    private static final class Job {
+
+        private final String id;
+        private final ReplayRequest request;
+        private final int rate;
+        private final Instant startedAt = Instant.now();
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicLong replayed = new AtomicLong();
+        private final AtomicLong kept = new AtomicLong();
+        private volatile long queued;
+        private volatile State state = State.RUNNING;
+        private volatile boolean cancelled;
+        private volatile String waiting;
+        private volatile Instant finishedAt;
+        private volatile String error;
+
+        Job(String id, ReplayRequest request, int rate) {
+            this.id = id;
+            this.request = request;
+            this.rate = rate;
+        }
+
+        boolean done() {
+            return cancelled || (request.limit() != null && replayed.get() >= request.limit());
+        }
+
+        void finish(State state, String error) {
+            this.waiting = null;
+            this.error = error;
+            this.finishedAt = Instant.now();
+            this.state = state;
+        }
+
+        Snapshot snapshot() {
+            return new Snapshot(id, state, request, rate, startedAt, finishedAt, queued,
+                    scanned.get(), replayed.get(), kept.get(), waiting, error);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package dev.slethware.pushnotifications.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.firebase.messaging.AndroidConfig;
+import com.google.firebase.messaging.ApnsConfig;
+import com.google.firebase.messaging.Aps;
+import com.google.firebase.messaging.BatchResponse;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.MessagingErrorCode;
+import com.google.firebase.messaging.MulticastMessage;
+import com.google.firebase.messaging.Notification;
+import com.google.firebase.messaging.SendResponse;
+import dev.slethware.pushnotifications.dto.PushPayload;
+import dev.slethware.pushnotifications.exception.FirebaseException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Collects individual FCM sends into sendEach batches.
+// A batch goes out once it holds max-size messages or its first message has waited linger,
+// and every caller gets back a future for its own message.
+// With fan-out enabled, payloads in a batch that only differ by device token are sent as one
+// multicast, so the notification is built and serialized once for all of them.
+@Slf4j
+@Service
+public class FcmBatchSender {
+
+    public static final String SEND_TIMER = "push.fcm.send";
+    public static final String MESSAGES_COUNTER = "push.fcm.messages";
+
+    private final FirebaseMessaging firebaseMessaging;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final boolean fanoutEnabled;
+    private final BlockingDeque<PendingSend> queue;
+    private final Semaphore batchesInFlight;
+
+    // Also read by the adaptive consumer controller
+    private final Timer sendTimer;
+    private final Counter delivered;
+    private final Counter rejected;
+    private final Counter errored;
+
+    private Thread flusher;
+    private volatile boolean running = true;
+
+    private static final AndroidConfig ANDROID_CONFIG = AndroidConfig.builder()
+            .setPriority(AndroidConfig.Priority.HIGH)
+            .build();
+
+    private static final ApnsConfig APNS_CONFIG = ApnsConfig.builder()
+            .setAps(Aps.builder()
+                    .setSound("default")
+                    .build())
+            .build();
+
+    public FcmBatchSender(FirebaseMessaging firebaseMessaging,
+                          MeterRegistry meterRegistry,
+                          @Value("${push.fcm.batch.max-size}") int maxBatchSize,
+                          @Value("${push.fcm.batch.linger}") Duration linger,
+                          @Value("${push.fcm.batch.queue-capacity}") int queueCapacity,
+                          @Value("${push.fcm.batch.max-in-flight}") int maxBatchesInFlight,
+                          @Value("${push.fcm.fanout.enabled}") boolean fanoutEnabled) {
+        if (maxBatchSize < 1 || maxBatchSize > 500) {
+            // sendEach and sendEachForMulticast reject anything larger than 500 messages
+            throw new IllegalArgumentException("push.fcm.batch.max-size must be between 1 and 500");
+        }
+        this.firebaseMessaging = firebaseMessaging;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = linger.toNanos();
+        this.fanoutEnabled = fanoutEnabled;
+        this.queue = new LinkedBlockingDeque<>(queueCapacity);
+        this.batchesInFlight = new Semaphore(maxBatchesInFlight);
+        this.sendTimer = Timer.builder(SEND_TIMER)
+                .description("Latency of FCM sendEach / sendEachForMulticast calls")
+                .register(meterRegistry);
+        // delivered: accepted by FCM, rejected: FCM refused this message (bad token or payload),
+        // error: FCM itself failed (unavailable, internal, quota) or the call never got an answer
+        this.delivered = Counter.builder(MESSAGES_COUNTER).tag("outcome", "delivered").register(meterRegistry);
+        this.rejected = Counter.builder(MESSAGES_COUNTER).tag("outcome", "rejected").register(meterRegistry);
+        this.errored = Counter.builder(MESSAGES_COUNTER).tag("outcome", "error").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher = new Thread(this::run, "fcm-batch-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        flusher.interrupt();
+        flusher.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    // Queues a payload for the next batch. Blocks while the queue is full, which holds the consumer back.
+    // Urgent payloads go to the front, so they make the next batch even when bulk sends are backed up.
+    public CompletableFuture<String> send(PushPayload payload) {
+        PendingSend pending = new PendingSend(payload, new CompletableFuture<>());
+        try {
+            if (payload.isUrgent()) {
+                queue.putFirst(pending);
+            } else {
+                queue.putLast(pending);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.result().completeExceptionally(new FirebaseException("Interrupted while queueing Firebase message", e));
+        }
+        return pending.result();
+    }
+
+    private void run() {
+        List<PendingSend> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingSend first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    // Take whatever is already waiting before checking the clock
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingSend next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                batchesInFlight.acquire();
+                dispatch(List.copyOf(batch));
+            } catch (InterruptedException e) {
+                // Only interrupted on shutdown: send what we already collected, the loop drains the rest
+                if (!batch.isEmpty()) {
+                    batchesInFlight.acquireUninterruptibly();
+                    dispatch(List.copyOf(batch));
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // Sends one collected batch as one or more FCM calls; the in-flight permit is returned when the last one completes
+    private void dispatch(List<PendingSend> batch) {
+        List<List<PendingSend>> multicasts = new ArrayList<>();
+        List<PendingSend> singles = new ArrayList<>();
+
+        if (fanoutEnabled) {
+            Map<FanoutKey, List<PendingSend>> groups = new LinkedHashMap<>();
+            for (PendingSend pending : batch) {
+                groups.computeIfAbsent(FanoutKey.of(pending.payload()), key -> new ArrayList<>()).add(pending);
+            }
+            for (List<PendingSend> group : groups.values()) {
+                if (group.size() > 1) {
+                    multicasts.add(group);
+                } else {
+                    singles.addAll(group);
+                }
+            }
+        } else {
+            singles = batch;
+        }
+
+        AtomicInteger outstanding = new AtomicInteger(multicasts.size() + (singles.isEmpty() ? 0 : 1));
+        for (List<PendingSend> group : multicasts) {
+            MulticastMessage message = buildMulticastMessage(group);
+            submit(group, () -> firebaseMessaging.sendEachForMulticastAsync(message), outstanding);
+        }
+        if (!singles.isEmpty()) {
+            List<Message> messages = singles.stream().map(pending -> buildMessage(pending.payload())).toList();
+            submit(singles, () -> firebaseMessaging.sendEachAsync(messages), outstanding);
+        }
+    }
+
+    private void submit(List<PendingSend> sends, Supplier<ApiFuture<BatchResponse>> call,
+                        AtomicInteger outstanding) {
+        long startedAt = System.nanoTime();
+        ApiFuture<BatchResponse> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            future = ApiFutures.immediateFailedFuture(e);
+        }
+
+        ApiFutures.addCallback(future, new ApiFutureCallback<>() {
+            @Override
+            public void onSuccess(BatchResponse response) {
+                sendTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                if (outstanding.decrementAndGet() == 0) {
+                    batchesInFlight.release();
+                }
+                complete(sends, response);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                sendTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                errored.increment(sends.size());
+                if (outstanding.decrementAndGet() == 0) {
+                    batchesInFlight.release();
+                }
+                log.error("Firebase send failed for {} messages: {}", sends.size(), t.getMessage());
+                sends.forEach(pending -> pending.result().completeExceptionally(t));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    // Responses come back in the order the messages (or multicast tokens) were given
+    private void complete(List<PendingSend> sends, BatchResponse response) {
+        List<SendResponse> responses = response.getResponses();
+        log.debug("Firebase batch of {}: {} succeeded, {} failed",
+                sends.size(), response.getSuccessCount(), response.getFailureCount());
+        for (int i = 0; i < sends.size(); i++) {
+            SendResponse sendResponse = responses.get(i);
+            if (sendResponse.isSuccessful()) {
+                delivered.increment();
+                sends.get(i).result().complete(sendResponse.getMessageId());
+            } else {
+                (isServerError(sendResponse.getException()) ? errored : rejected).increment();
+                sends.get(i).result().completeExceptionally(sendResponse.getException());
+            }
+        }
+    }
+
+    private static boolean isServerError(FirebaseMessagingException e) {
+        MessagingErrorCode code = e.getMessagingErrorCode();
+        return code == null
+                || code == MessagingErrorCode.UNAVAILABLE
+                || code == MessagingErrorCode.INTERNAL
+                || code == MessagingErrorCode.QUOTA_EXCEEDED;
+    }
+
+    private Message buildMessage(PushPayload payload) {
+        Message.Builder builder = Message.builder()
+                .setToken(payload.getDeviceToken())
+                .setNotification(buildNotification(payload))
+                .setAndroidConfig(ANDROID_CONFIG)
+                .setApnsConfig(APNS_CONFIG);
+
+        if (payload.getData() != null && !payload.getData().isEmpty()) {
+            builder.putAllData(payload.getData());
+        }
+        return builder.build();
+    }
+
+    // The whole group shares one payload, only the tokens differ
+    private MulticastMessage buildMulticastMessage(List<PendingSend> group) {
+        PushPayload payload = group.get(0).payload();
+        MulticastMessage.Builder builder = MulticastMessage.builder()
+                .addAllTokens(group.stream().map(pending -> pending.payload().getDeviceToken()).toList())
+                .setNotification(buildNotification(payload))
+                .setAndroidConfig(ANDROID_CONFIG)
+                .setApnsConfig(APNS_CONFIG);
+
+        if (payload.getData() != null && !payload.getData().isEmpty()) {
+            builder.putAllData(payload.getData());
+        }
+        return builder.build();
+    }
+
+    private Notification buildNotification(PushPayload payload) {
+        Notification.Builder notificationBuilder = Notification.builder()
+                .setTitle(payload.getTitle())
+                .setBody(payload.getBody());
+
+        if (payload.getImageUrl() != null && !payload.getImageUrl().isBlank()) {
+            notificationBuilder.setImage(payload.getImageUrl());
+        }
+        return notificationBuilder.build();
+    }
+
+    private record PendingSend(PushPayload payload, CompletableFuture<String> result) {}
+
+    // Everything that ends up in the FCM message except the token
+    private record FanoutKey(String title, String body, String imageUrl, Map<String, String> data) {
+        static FanoutKey of(PushPayload payload) {
+            return new FanoutKey(payload.getTitle(), payload.getBody(), payload.getImageUrl(), payload.getData());
+        }
+    }
+}
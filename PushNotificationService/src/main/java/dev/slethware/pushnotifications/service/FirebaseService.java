@@ -3,82 +3,125 @@ package dev.slethware.pushnotifications.service;
 import com.google.firebase.messaging.*;
 import dev.slethware.pushnotifications.dto.PushPayload;
 import dev.slethware.pushnotifications.exception.FirebaseException;
+import dev.slethware.pushnotifications.exception.FirebaseUnavailableException;
 import dev.slethware.pushnotifications.exception.InvalidDeviceTokenException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class FirebaseService {
 
-    private final FirebaseMessaging firebaseMessaging;
-    private static final String FIREBASE_CIRCUIT_BREAKER = "firebase";
+    private final FcmBatchSender fcmBatchSender;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final InvalidTokenRegistry invalidTokenRegistry;
+    public static final String FIREBASE_CIRCUIT_BREAKER = "firebase";
 
     @CircuitBreaker(name = FIREBASE_CIRCUIT_BREAKER, fallbackMethod = "firebaseFallback")
     public String sendPushNotification(PushPayload payload, String correlationId) {
         try {
-            Message message = buildFirebaseMessage(payload);
-            String response = firebaseMessaging.send(message);
+            // Goes out with whatever else is being sent right now, in a single sendEach call
+            String response = await(fcmBatchSender.send(payload));
             log.info("[{}] Successfully sent message via Firebase: {}", correlationId, response);
             return response;
         } catch (FirebaseMessagingException e) {
             log.error("[{}] Firebase error: {} - Code: {}", correlationId, e.getMessage(), e.getMessagingErrorCode());
-            handleFirebaseException(e);
-            // This line is unlikely to be reached if handleFirebaseException throws,
-            // but is here for completeness.
-            throw new FirebaseException("Failed to send Firebase message: " + e.getMessage(), e);
+            throw toDeliveryException(e, payload);
         }
     }
 
-    private Message buildFirebaseMessage(PushPayload payload) {
-        Notification.Builder notificationBuilder = Notification.builder()
-                .setTitle(payload.getTitle())
-                .setBody(payload.getBody());
+    // Non-blocking variant for the async consumer. The annotation-based breaker only sees synchronous
+    // calls, so the same "firebase" breaker is driven by hand around the future.
+    public CompletableFuture<String> sendPushNotificationAsync(PushPayload payload, String correlationId) {
+        var circuitBreaker = circuitBreakerRegistry.circuitBreaker(FIREBASE_CIRCUIT_BREAKER);
+        if (!circuitBreaker.tryAcquirePermission()) {
+            log.error("[{}] Firebase circuit breaker is OPEN. Failing fast for token: {}",
+                    correlationId, payload.getDeviceToken());
+            return CompletableFuture.failedFuture(new FirebaseUnavailableException("Firebase service is unavailable. Circuit breaker is open.",
+                    CallNotPermittedException.createCallNotPermittedException(circuitBreaker)));
+        }
 
-        if (payload.getImageUrl() != null && !payload.getImageUrl().isBlank()) {
-            notificationBuilder.setImage(payload.getImageUrl());
+        long start = System.nanoTime();
+        CompletableFuture<String> result;
+        try {
+            result = fcmBatchSender.send(payload);
+        } catch (RuntimeException e) {
+            circuitBreaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS, e);
+            return CompletableFuture.failedFuture(e);
         }
 
-        Message.Builder builder = Message.builder()
-                .setToken(payload.getDeviceToken())
-                .setNotification(notificationBuilder.build())
-                .setAndroidConfig(AndroidConfig.builder()
-                        .setPriority(AndroidConfig.Priority.HIGH)
-                        .build())
-                .setApnsConfig(ApnsConfig.builder()
-                        .setAps(Aps.builder()
-                                .setSound("default")
-                                .build())
-                        .build());
+        return result.handle((response, error) -> {
+            long duration = System.nanoTime() - start;
+            if (error == null) {
+                circuitBreaker.onSuccess(duration, TimeUnit.NANOSECONDS);
+                log.info("[{}] Successfully sent message via Firebase: {}", correlationId, response);
+                return response;
+            }
 
-        if (payload.getData() != null && !payload.getData().isEmpty()) {
-            // Convert Map<String, Object> to Map<String, String>
-            payload.getData().forEach((key, value) ->
-                    builder.putData(key, String.valueOf(value))
-            );
-        }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            circuitBreaker.onError(duration, TimeUnit.NANOSECONDS, cause);
+            if (cause instanceof FirebaseMessagingException e) {
+                log.error("[{}] Firebase error: {} - Code: {}", correlationId, e.getMessage(), e.getMessagingErrorCode());
+                throw toDeliveryException(e, payload);
+            }
+            throw cause instanceof RuntimeException runtimeException
+                    ? runtimeException
+                    : new FirebaseException("Failed to send Firebase message: " + cause.getMessage(), cause);
+        });
+    }
 
-        return builder.build();
+    private String await(CompletableFuture<String> result) throws FirebaseMessagingException {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FirebaseMessagingException messagingException) {
+                throw messagingException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new FirebaseException("Failed to send Firebase message: " + cause.getMessage(), cause);
+        }
     }
 
-    private void handleFirebaseException(FirebaseMessagingException e) {
+    private RuntimeException toDeliveryException(FirebaseMessagingException e, PushPayload payload) {
         MessagingErrorCode code = e.getMessagingErrorCode();
-        if (code == MessagingErrorCode.UNREGISTERED || code == MessagingErrorCode.INVALID_ARGUMENT) {
-            // Token is invalid or expired. Do not retry.
-            throw new InvalidDeviceTokenException("Firebase error: Invalid or unregistered device token. " + e.getMessage());
+        if (code == MessagingErrorCode.UNREGISTERED) {
+            // Token is invalid or expired. Do not retry, and remember it so later sends skip FCM.
+            invalidTokenRegistry.markInvalid(payload.getDeviceToken());
+            return new InvalidDeviceTokenException("Firebase error: Invalid or unregistered device token. " + e.getMessage());
+        }
+        if (code == MessagingErrorCode.INVALID_ARGUMENT) {
+            // Either the token or the payload (size, platform config) is bad; a retry won't help, but the token
+            // may well be fine, so it is not remembered
+            return new InvalidDeviceTokenException("Firebase error: Invalid token or message. " + e.getMessage());
         }
         // For other errors (UNAVAILABLE, INTERNAL), throw a generic FirebaseException
         // which will trigger the consumer's retry logic.
-        throw new FirebaseException("Firebase error: " + e.getMessage(), e);
+        return new FirebaseException("Firebase error: " + e.getMessage(), e);
     }
 
+    // Only a refused call means the breaker is open; anything else is the send's own failure and passes through
     @SuppressWarnings("unused")
     private String firebaseFallback(PushPayload payload, String correlationId, Throwable t) {
-        log.error("[{}] Firebase circuit breaker is OPEN. Failing fast for token: {}",
-                correlationId, payload.getDeviceToken(), t);
-        throw new FirebaseException("Firebase service is unavailable. Circuit breaker is open.", t);
+        if (t instanceof CallNotPermittedException) {
+            log.error("[{}] Firebase circuit breaker is OPEN. Failing fast for token: {}",
+                    correlationId, payload.getDeviceToken());
+            throw new FirebaseUnavailableException("Firebase service is unavailable. Circuit breaker is open.", t);
+        }
+        if (t instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        throw new FirebaseException("Failed to send Firebase message: " + t.getMessage(), t);
     }
 }
\ No newline at end of file
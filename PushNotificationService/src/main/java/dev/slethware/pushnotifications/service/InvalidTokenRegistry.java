@@ -0,0 +1,156 @@
+package dev.slethware.pushnotifications.service;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Device tokens FCM has told us are dead, shared by every push instance.
+// Redis holds the truth: a sorted set of token digests scored by when the entry expires.
+// Each instance keeps a Bloom filter of that set, so the ~85% of sends with a good token never touch Redis.
+@Slf4j
+@Service
+public class InvalidTokenRegistry {
+
+    private static final String INVALID_TOKENS_KEY = "push:invalid-tokens";
+    private static final int MIN_EXPECTED_TOKENS = 10_000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final Duration tokenTtl;
+
+    // Swapped wholesale on every rebuild; puts in between go straight into the current one
+    private volatile BloomFilter<CharSequence> filter = newFilter(MIN_EXPECTED_TOKENS);
+
+    // Digests marked here since the running (or last) rebuild started. A rebuild's SCAN can miss them, either
+    // because they were added while it ran or because their write had not reached Redis yet, so they are put
+    // into the new filter before it is swapped in. Guarded by the registry's lock.
+    private Set<String> recentMarks = new HashSet<>();
+
+    // Marks are written from FCM completion threads, which must not wait on Redis
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "invalid-token-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public InvalidTokenRegistry(RedisTemplate<String, Object> redisTemplate,
+                                @Value("${push.invalid-tokens.ttl}") Duration tokenTtl) {
+        this.redisTemplate = redisTemplate;
+        this.tokenTtl = tokenTtl;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+    }
+
+    // Checked before a payload is built. A filter miss is definitive for everything known at the last
+    // rebuild; a filter hit is confirmed against Redis, since it may be a false positive or an expired entry.
+    public boolean isKnownInvalid(String deviceToken) {
+        String digest = digest(deviceToken);
+        if (!filter.mightContain(digest)) {
+            return false;
+        }
+        try {
+            Double expiresAt = redisTemplate.opsForZSet().score(INVALID_TOKENS_KEY, digest);
+            return expiresAt != null && expiresAt > System.currentTimeMillis();
+        } catch (Exception e) {
+            // Without Redis we cannot tell, so let FCM decide
+            log.error("Failed to check invalid token registry: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    // Takes effect locally straight away; the Redis write happens on the writer thread
+    public void markInvalid(String deviceToken) {
+        if (deviceToken == null || deviceToken.isBlank()) {
+            return;
+        }
+        String digest = digest(deviceToken);
+        synchronized (this) {
+            filter.put(digest);
+            recentMarks.add(digest);
+        }
+        writer.execute(() -> {
+            try {
+                redisTemplate.opsForZSet().add(INVALID_TOKENS_KEY, digest, System.currentTimeMillis() + tokenTtl.toMillis());
+            } catch (Exception e) {
+                log.error("Failed to record invalid device token: {}", e.getMessage());
+            }
+        });
+    }
+
+    // Drops expired entries and rebuilds the filter from what is left, picking up tokens other instances marked
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${push.invalid-tokens.refresh-interval-ms}",
+            initialDelayString = "${push.invalid-tokens.refresh-interval-ms}")
+    public void refresh() {
+        Set<String> carried;
+        synchronized (this) {
+            carried = recentMarks;
+            recentMarks = new HashSet<>();
+        }
+        try {
+            redisTemplate.opsForZSet().removeRangeByScore(INVALID_TOKENS_KEY, Double.NEGATIVE_INFINITY, System.currentTimeMillis());
+
+            List<String> digests = new ArrayList<>();
+            ScanOptions options = ScanOptions.scanOptions().count(1000).build();
+            try (Cursor<ZSetOperations.TypedTuple<Object>> cursor = redisTemplate.opsForZSet().scan(INVALID_TOKENS_KEY, options)) {
+                cursor.forEachRemaining(tuple -> digests.add((String) tuple.getValue()));
+            }
+
+            // Sized with headroom for tokens marked before the next rebuild
+            BloomFilter<CharSequence> rebuilt = newFilter(Math.max(MIN_EXPECTED_TOKENS, digests.size() * 2));
+            digests.forEach(rebuilt::put);
+            synchronized (this) {
+                carried.forEach(rebuilt::put);
+                recentMarks.forEach(rebuilt::put);
+                filter = rebuilt;
+            }
+            log.info("Rebuilt invalid token filter with {} tokens", digests.size());
+        } catch (Exception e) {
+            // Keep the old filter; it is only ever missing recent marks from other instances
+            synchronized (this) {
+                recentMarks.addAll(carried);
+            }
+            log.error("Failed to rebuild invalid token filter: {}", e.getMessage());
+        }
+    }
+
+    private static BloomFilter<CharSequence> newFilter(int expectedInsertions) {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, FALSE_POSITIVE_RATE);
+    }
+
+    // Tokens are ~160 characters; a digest keeps the Redis set and the filter keys small
+    private static String digest(String deviceToken) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(deviceToken.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to ship SHA-256
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
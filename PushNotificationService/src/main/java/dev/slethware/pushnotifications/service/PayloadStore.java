@@ -0,0 +1,58 @@
+package dev.slethware.pushnotifications.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+
+// Reads claim-checked notification content the gateway stored in Redis.
+// Content is keyed by its hash and a campaign shares one key, so it is kept in a local cache:
+// only the first message of a campaign goes to Redis, and concurrent misses for one key share a single read.
+@Slf4j
+@Service
+public class PayloadStore {
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final Cache<String, byte[]> cache;
+
+    public PayloadStore(RedisTemplate<String, Object> redisTemplate,
+                        @Value("${push.claim-check.cache-size}") DataSize cacheSize,
+                        @Value("${push.claim-check.cache-ttl}") Duration cacheTtl) {
+        this.redisTemplate = redisTemplate;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(cacheSize.toBytes())
+                .weigher((String key, byte[] content) -> content.length)
+                .expireAfterAccess(cacheTtl)
+                .build();
+    }
+
+    // Returns null when the content has expired or was never stored
+    public byte[] get(String key) {
+        try {
+            return cache.get(key, () -> {
+                byte[] content = redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                        connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+                if (content == null) {
+                    throw new NoSuchElementException(key);
+                }
+                log.debug("Loaded {} bytes of notification content for {}", content.length, key);
+                return content;
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof NoSuchElementException) {
+                return null;
+            }
+            throw new IllegalStateException("Failed to load notification content " + key + ": " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
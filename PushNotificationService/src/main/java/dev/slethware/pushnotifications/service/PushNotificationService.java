@@ -4,13 +4,17 @@ import dev.slethware.pushnotifications.dto.NotificationMessage;
 import dev.slethware.pushnotifications.dto.PushPayload;
 import dev.slethware.pushnotifications.dto.UserContact;
 import dev.slethware.pushnotifications.dto.UserPreferences;
+import dev.slethware.pushnotifications.exception.FirebaseUnavailableException;
 import dev.slethware.pushnotifications.exception.InvalidDeviceTokenException;
+import dev.slethware.pushnotifications.util.PriorityLanes;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Slf4j
 @Service
@@ -19,17 +23,92 @@ public class PushNotificationService {
 
     private final FirebaseService firebaseService;
     private final StatusService statusService;
+    private final InvalidTokenRegistry invalidTokenRegistry;
+    private final PriorityLanes priorityLanes;
 
     public void sendPushNotification(NotificationMessage message) {
         String correlationId = message.getCorrelationId();
         String notificationId = message.getNotificationId();
 
+        // 1-3. Validate, check preferences and build the payload
+        PushPayload payload = preparePayload(message);
+        if (payload == null) {
+            return;
+        }
+
+        // 4. Send via Firebase
+        try {
+            statusService.updateStatus(notificationId, "pending", null);
+            String messageId = firebaseService.sendPushNotification(payload, correlationId);
+            log.info("[{}] Push notification sent successfully via Firebase, messageId: {}",
+                    correlationId, messageId);
+
+            // 5. Update Status to Delivered
+            statusService.updateStatus(notificationId, "delivered", null);
+
+        } catch (FirebaseUnavailableException e) {
+            // Nothing was sent: the status stays pending and the consumer puts the message back
+            log.warn("[{}] Firebase unavailable, deferring push notification {}", correlationId, notificationId);
+            throw e;
+        } catch (Exception e) {
+            // Log error and update status
+            log.error("[{}] Failed to send push notification {}: {}",
+                    correlationId, notificationId, e.getMessage(), e);
+            statusService.updateStatus(notificationId, "failed", e.getMessage());
+            // Re-throw to trigger retry logic in consumer
+            throw new RuntimeException("Failed to send push notification: " + e.getMessage(), e);
+        }
+    }
+
+    // Same flow as sendPushNotification, but the Firebase send does not block the calling thread.
+    // Validation failures are still thrown straight away; send failures complete the future exceptionally.
+    public CompletableFuture<Void> sendPushNotificationAsync(NotificationMessage message) {
+        String correlationId = message.getCorrelationId();
+        String notificationId = message.getNotificationId();
+
+        PushPayload payload = preparePayload(message);
+        if (payload == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        statusService.updateStatus(notificationId, "pending", null);
+        return firebaseService.sendPushNotificationAsync(payload, correlationId)
+                .handle((messageId, error) -> {
+                    if (error == null) {
+                        log.info("[{}] Push notification sent successfully via Firebase, messageId: {}",
+                                correlationId, messageId);
+                        statusService.updateStatus(notificationId, "delivered", null);
+                        return null;
+                    }
+
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (cause instanceof FirebaseUnavailableException unavailable) {
+                        log.warn("[{}] Firebase unavailable, deferring push notification {}", correlationId, notificationId);
+                        throw unavailable;
+                    }
+                    log.error("[{}] Failed to send push notification {}: {}",
+                            correlationId, notificationId, cause.getMessage(), cause);
+                    statusService.updateStatus(notificationId, "failed", cause.getMessage());
+                    throw new RuntimeException("Failed to send push notification: " + cause.getMessage(), cause);
+                });
+    }
+
+    // Returns null when the user has push disabled (the notification is marked skipped)
+    private PushPayload preparePayload(NotificationMessage message) {
+        String correlationId = message.getCorrelationId();
+        String notificationId = message.getNotificationId();
+
         // 1. Validate Device Token
         String deviceToken = Optional.ofNullable(message.getUserContact())
                 .map(UserContact::getPushToken)
                 .filter(token -> !token.isBlank())
                 .orElseThrow(() -> new InvalidDeviceTokenException("Device token is null or empty"));
 
+        // FCM already rejected this token, don't spend a round trip finding out again
+        if (invalidTokenRegistry.isKnownInvalid(deviceToken)) {
+            throw new InvalidDeviceTokenException("Device token is known to be invalid");
+        }
+
         // 2. Check User Preferences
         boolean pushEnabled = Optional.ofNullable(message.getUserPreferences())
                 .map(UserPreferences::isPush)
@@ -39,7 +118,7 @@ public class PushNotificationService {
             log.warn("[{}] User has disabled push notifications. Skipping notification {}",
                     correlationId, notificationId);
             statusService.updateStatus(notificationId, "skipped", "User has disabled push notifications");
-            return;
+            return null;
         }
 
         // 3. Build Push Payload (No template service call needed for push)
@@ -48,30 +127,12 @@ public class PushNotificationService {
         String body = (String) variables.getOrDefault("body", "You have a new update.");
         String imageUrl = (String) variables.get("imageUrl"); // Can be null
 
-        PushPayload payload = PushPayload.builder()
+        return PushPayload.builder()
                 .deviceToken(deviceToken)
                 .title(title)
                 .body(body)
                 .imageUrl(imageUrl)
+                .urgent(priorityLanes.laneFor(message.getPriority()) == PriorityLanes.Lane.HIGH)
                 .build();
-
-        // 4. Send via Firebase
-        try {
-            statusService.updateStatus(notificationId, "pending", null);
-            String messageId = firebaseService.sendPushNotification(payload, correlationId);
-            log.info("[{}] Push notification sent successfully via Firebase, messageId: {}",
-                    correlationId, messageId);
-
-            // 5. Update Status to Delivered
-            statusService.updateStatus(notificationId, "delivered", null);
-
-        } catch (Exception e) {
-            // Log error and update status
-            log.error("[{}] Failed to send push notification {}: {}",
-                    correlationId, notificationId, e.getMessage(), e);
-            statusService.updateStatus(notificationId, "failed", e.getMessage());
-            // Re-throw to trigger retry logic in consumer
-            throw new RuntimeException("Failed to send push notification: " + e.getMessage(), e);
-        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,115 @@
+package dev.slethware.pushnotifications.service;
+
+import dev.slethware.pushnotifications.config.RabbitMQConfig;
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import dev.slethware.pushnotifications.util.PriorityLanes;
+import dev.slethware.pushnotifications.util.RetryUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+// Moves failed deliveries out of the push lanes: into a delay queue for another attempt, or into
+// failed.queue once they are out of attempts. Both are published and confirmed before the caller acks
+// the original, so a message is never lost in between.
+@Slf4j
+@Service
+public class RetryPublisher {
+
+    public static final String RETRY_COUNT_HEADER = "x-retry-count";
+    public static final String LAST_ERROR_HEADER = "x-last-error";
+    public static final String FAILED_AT_HEADER = "x-failed-at";
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final RabbitTemplate rabbitTemplate;
+    private final RetryUtil retryUtil;
+    private final PriorityLanes priorityLanes;
+    private final String exchangeName;
+    private final String failedRoutingKey;
+    private final Duration confirmTimeout;
+    // Longest delay queue there is, or null when retries are off
+    private final Long deferDelay;
+
+    public RetryPublisher(RabbitTemplate rabbitTemplate,
+                          RetryUtil retryUtil,
+                          PriorityLanes priorityLanes,
+                          @Value("${rabbitmq.exchange}") String exchangeName,
+                          @Value("${rabbitmq.routing-key.failed}") String failedRoutingKey,
+                          @Value("${retry.confirm-timeout}") Duration confirmTimeout,
+                          @Value("${retry.max-attempts}") int maxAttempts) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.retryUtil = retryUtil;
+        this.priorityLanes = priorityLanes;
+        this.exchangeName = exchangeName;
+        this.failedRoutingKey = failedRoutingKey;
+        this.confirmTimeout = confirmTimeout;
+        List<Long> delays = retryUtil.retryDelays(maxAttempts);
+        this.deferDelay = delays.isEmpty() ? null : delays.getLast();
+    }
+
+    // Schedules the next attempt; the delay queue dead-letters it back to the message's lane after the backoff
+    public void scheduleRetry(NotificationMessage message, int retryCount, String error) {
+        long delay = retryUtil.calculateBackoff(retryCount);
+        PriorityLanes.Lane lane = priorityLanes.laneFor(message.getPriority());
+        String retryQueue = RetryUtil.retryQueueName(priorityLanes.retryQueuePrefix(lane), delay);
+
+        // Default exchange, routed straight to the delay queue by name
+        publish("", retryQueue, message, retryCount + 1, error, false);
+        log.info("[{}] Scheduled retry {} of {} in {}ms via {}",
+                message.getCorrelationId(), retryCount + 1, message.getNotificationId(), delay, retryQueue);
+    }
+
+    // Holds a message back without using up an attempt, for failures that are not the message's own (FCM is
+    // unavailable). It goes through the longest delay queue and comes back to its lane with the same retry count.
+    public void defer(NotificationMessage message, int retryCount, String error) {
+        if (deferDelay == null) {
+            throw new IllegalStateException("No delay queue to defer to, retry.max-attempts is 1");
+        }
+        PriorityLanes.Lane lane = priorityLanes.laneFor(message.getPriority());
+        String retryQueue = RetryUtil.retryQueueName(priorityLanes.retryQueuePrefix(lane), deferDelay);
+
+        publish("", retryQueue, message, retryCount, error, false);
+        log.info("[{}] Deferred {} for {}ms via {}", message.getCorrelationId(), message.getNotificationId(),
+                deferDelay, retryQueue);
+    }
+
+    // Parks a message that has used up its attempts, with enough context to inspect or replay it later
+    public void park(NotificationMessage message, int retryCount, String error) {
+        publish(exchangeName, failedRoutingKey, message, retryCount, error, true);
+        log.info("[{}] Parked {} in the failed queue after {} attempts",
+                message.getCorrelationId(), message.getNotificationId(), retryCount + 1);
+    }
+
+    private void publish(String exchange, String routingKey, NotificationMessage message,
+                         int retryCount, String error, boolean failed) {
+        MessagePostProcessor headers = amqpMessage -> {
+            amqpMessage.getMessageProperties().setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+            amqpMessage.getMessageProperties().setCorrelationId(message.getCorrelationId());
+            amqpMessage.getMessageProperties().setHeader("request_id", message.getRequestId());
+            // A sharded retry has to hash back onto the same shard
+            amqpMessage.getMessageProperties().setHeader(RabbitMQConfig.SHARD_HASH_HEADER, message.getUserId());
+            amqpMessage.getMessageProperties().setHeader(RETRY_COUNT_HEADER, retryCount);
+            if (error != null) {
+                amqpMessage.getMessageProperties().setHeader(LAST_ERROR_HEADER,
+                        error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+            }
+            if (failed) {
+                amqpMessage.getMessageProperties().setHeader(FAILED_AT_HEADER, Instant.now().toString());
+            }
+            return amqpMessage;
+        };
+
+        rabbitTemplate.invoke(operations -> {
+            operations.convertAndSend(exchange, routingKey, message, headers);
+            operations.waitForConfirmsOrDie(confirmTimeout.toMillis());
+            return null;
+        });
+    }
+}
@@ -1,67 +1,185 @@
 package dev.slethware.pushnotifications.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import dev.slethware.pushnotifications.dto.StatusUpdate;
-import lombok.RequiredArgsConstructor;
+import dev.slethware.pushnotifications.util.StatusCodec;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+// Status writes are buffered and flushed to Redis in pipelined batches every few milliseconds.
+// Only the latest update per notification is kept, so "pending" followed by "delivered" within
+// one flush window costs a single write.
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class StatusService {
 
     private final RedisTemplate<String, Object> redisTemplate;
+    private final Duration flushInterval;
+    private final int bufferCapacity;
+    private final int pipelineSize;
+
     private static final String STATUS_KEY_PREFIX = "notification:status:";
     private static final Duration STATUS_TTL = Duration.ofHours(24);
+    private static final byte[] WRITE_SCRIPT_BYTES = StatusCodec.WRITE_LUA.getBytes(StandardCharsets.UTF_8);
 
-    public void updateStatus(String notificationId, String status, String error) {
-        String key = STATUS_KEY_PREFIX + notificationId;
-        StatusUpdate statusUpdate = StatusUpdate.builder()
-                .notificationId(notificationId)
-                .status(status)
-                .timestamp(Instant.now().toString())
-                .error(error)
-                .build();
+    // Latest unwritten update per notification id
+    private final ConcurrentHashMap<String, PendingStatus> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
 
-        try {
-            // Manually serialize to JSON string
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
-            String jsonString = mapper.writeValueAsString(statusUpdate);
-            
-            redisTemplate.opsForValue().set(key, jsonString, STATUS_TTL);
-            log.info("Updated status for {}: {}", notificationId, status);
-        } catch (Exception e) {
-            // Gracefully handle Redis failure
-            log.error("Failed to update status in Redis for {}: {}",
-                    notificationId, e.getMessage(), e);
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "status-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StatusService(RedisTemplate<String, Object> redisTemplate,
+                         @Value("${push.status.flush-interval}") Duration flushInterval,
+                         @Value("${push.status.buffer-capacity}") int bufferCapacity,
+                         @Value("${push.status.pipeline-size}") int pipelineSize) {
+        this.redisTemplate = redisTemplate;
+        this.flushInterval = flushInterval;
+        this.bufferCapacity = bufferCapacity;
+        this.pipelineSize = pipelineSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher.scheduleWithFixedDelay(this::flush, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        flush();
+    }
+
+    // Queues the update and returns once it is buffered. The future completes when it (or a later
+    // update for the same notification) has been written.
+    public CompletableFuture<Void> updateStatus(String notificationId, String status, String error) {
+        PendingStatus update = new PendingStatus(notificationId,
+                StatusCodec.encode(status, System.currentTimeMillis(), error, STATUS_TTL.toMillis()),
+                new CompletableFuture<>());
+
+        pending.merge(notificationId, update, (superseded, latest) -> {
+            // The superseded update is never written on its own, it is done (or failed) when the latest one is
+            latest.flushed().whenComplete((ignored, e) -> {
+                if (e == null) {
+                    superseded.flushed().complete(null);
+                } else {
+                    superseded.flushed().completeExceptionally(e);
+                }
+            });
+            return latest;
+        });
+        log.debug("Queued status for {}: {}", notificationId, status);
+
+        // Backpressure: a full buffer is flushed by the caller instead of growing further
+        if (pending.size() >= bufferCapacity) {
+            flush();
         }
+        return update.flushed();
+    }
+
+    // Completes once everything queued so far for this notification is in Redis, or exceptionally if the write failed.
+    // Consumers wait on this before acking; a failed write stays buffered and is retried on the next flush.
+    public CompletableFuture<Void> whenFlushed(String notificationId) {
+        PendingStatus update = pending.get(notificationId);
+        return update == null ? CompletableFuture.completedFuture(null) : update.flushed();
     }
 
     public StatusUpdate getStatus(String notificationId) {
+        // Read our own writes that have not reached Redis yet
+        PendingStatus buffered = pending.get(notificationId);
+        if (buffered != null) {
+            try {
+                return StatusCodec.decode(notificationId, Arrays.asList(buffered.args()[0], buffered.args()[1],
+                        buffered.args()[2].isEmpty() ? null : buffered.args()[2]));
+            } catch (Exception e) {
+                log.error("Failed to decode buffered status for {}: {}", notificationId, e.getMessage());
+            }
+        }
+
         String key = STATUS_KEY_PREFIX + notificationId;
         try {
-            String jsonString = (String) redisTemplate.opsForValue().get(key);
-            
-            if (jsonString == null || jsonString.isEmpty()) {
+            List<?> reply = redisTemplate.execute(StatusCodec.READ_SCRIPT, List.of(key));
+            StatusUpdate status = StatusCodec.decode(notificationId, reply);
+
+            if (status == null) {
                 log.warn("Status not found for notification: {}", notificationId);
-                return null;
             }
- 
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
-            return mapper.readValue(jsonString, StatusUpdate.class);
-            
+            return status;
+
         } catch (Exception e) {
             log.error("Failed to get status from Redis for {}: {}",
                     notificationId, e.getMessage(), e);
             return null;
         }
     }
-}
\ No newline at end of file
+
+    // Writes everything buffered, pipeline-size updates per round trip. Flushes never overlap.
+    public void flush() {
+        flushLock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<PendingStatus> batch = new ArrayList<>(pending.values());
+            for (int from = 0; from < batch.size(); from += pipelineSize) {
+                List<PendingStatus> chunk = batch.subList(from, Math.min(from + pipelineSize, batch.size()));
+                try {
+                    write(chunk);
+                } catch (Exception e) {
+                    // Fail the waiters; the updates stay queued and are written by the next flush
+                    log.error("Failed to update {} statuses in Redis: {}", chunk.size(), e.getMessage(), e);
+                    chunk.forEach(update -> update.flushed().completeExceptionally(e));
+                    continue;
+                }
+                for (PendingStatus update : chunk) {
+                    // A newer update that arrived during the flush stays queued for the next one
+                    pending.remove(update.notificationId(), update);
+                    update.flushed().complete(null);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Unexpected error while flushing statuses: {}", e.getMessage(), e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void write(List<PendingStatus> updates) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (PendingStatus update : updates) {
+                String[] args = update.args();
+                connection.scriptingCommands().eval(WRITE_SCRIPT_BYTES, ReturnType.INTEGER, 1,
+                        bytes(STATUS_KEY_PREFIX + update.notificationId()),
+                        bytes(args[0]), bytes(args[1]), bytes(args[2]), bytes(args[3]));
+            }
+            return null;
+        });
+        log.debug("Flushed {} status updates", updates.size());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private record PendingStatus(String notificationId, String[] args, CompletableFuture<Void> flushed) {}
+}
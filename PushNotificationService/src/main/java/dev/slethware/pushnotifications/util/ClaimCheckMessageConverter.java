@@ -0,0 +1,55 @@
+package dev.slethware.pushnotifications.util;
+
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import dev.slethware.pushnotifications.service.PayloadStore;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+// Resolves the gateway's claim check: a push message carrying CLAIM_CHECK_HEADER arrives without its
+// variables and metadata, which are read back from the PayloadStore when the message is consumed.
+// Messages written from here (retries, parked messages) carry their content inline, so a parked message
+// stays replayable after the stored content has expired.
+public class ClaimCheckMessageConverter implements MessageConverter {
+
+    public static final String CLAIM_CHECK_HEADER = "x-claim-check";
+
+    private final MessageConverter delegate;
+    private final PayloadStore payloadStore;
+
+    public ClaimCheckMessageConverter(MessageConverter delegate, PayloadStore payloadStore) {
+        this.delegate = delegate;
+        this.payloadStore = payloadStore;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) {
+        return delegate.toMessage(object, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        Object converted = delegate.fromMessage(message);
+        Object key = message.getMessageProperties().getHeader(CLAIM_CHECK_HEADER);
+        if (key == null || !(converted instanceof NotificationMessage notification)) {
+            return converted;
+        }
+
+        byte[] content;
+        try {
+            content = payloadStore.get(key.toString());
+        } catch (RuntimeException e) {
+            throw new MessageConversionException("Failed to resolve claim check " + key, e);
+        }
+        if (content == null) {
+            // Rejected without requeue, so it is dead-lettered to failed.queue like any unreadable message
+            throw new MessageConversionException("Claim-checked content " + key + " has expired or was never stored");
+        }
+
+        NotificationMessageCodec.Content resolved = NotificationMessageCodec.decodeContent(content);
+        notification.setVariables(resolved.variables());
+        notification.setMetadata(resolved.metadata());
+        return notification;
+    }
+}
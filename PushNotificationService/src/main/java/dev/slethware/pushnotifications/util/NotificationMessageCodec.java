@@ -0,0 +1,285 @@
+package dev.slethware.pushnotifications.util;
+
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import dev.slethware.pushnotifications.dto.UserContact;
+import dev.slethware.pushnotifications.dto.UserPreferences;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Binary wire format for NotificationMessage, shared with the API gateway (same layout there).
+// Fields are written in a fixed order, so no field names go over the wire:
+//   version byte, notification_id, request_id, user_id, notification_type, template_code, correlation_id,
+//   priority (zigzag varint), user_preferences (flags byte), user_contact email and push_token, variables, metadata.
+// Every field but priority and user_preferences is a tagged value: a one-byte type tag, then for strings
+// a varint byte length and UTF-8. Values with no tag (anything but strings, numbers, booleans, maps and
+// lists) make encode throw, and the caller falls back to JSON.
+public final class NotificationMessageCodec {
+
+    public static final String CONTENT_TYPE = "application/vnd.notification-message.v1";
+
+    private static final byte VERSION = 1;
+
+    private static final int PREFERENCES_PRESENT = 1;
+    private static final int PREFERENCE_EMAIL = 1 << 1;
+    private static final int PREFERENCE_PUSH = 1 << 2;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INT = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_TRUE = 5;
+    private static final byte TAG_FALSE = 6;
+    private static final byte TAG_MAP = 7;
+    private static final byte TAG_LIST = 8;
+
+    private NotificationMessageCodec() {}
+
+    public static byte[] encode(NotificationMessage message) {
+        Writer out = new Writer();
+        out.writeByte(VERSION);
+        out.writeValue(message.getNotificationId());
+        out.writeValue(message.getRequestId());
+        out.writeValue(message.getUserId());
+        out.writeValue(message.getNotificationType());
+        out.writeValue(message.getTemplateCode());
+        out.writeValue(message.getCorrelationId());
+        out.writeVarint(zigzag(message.getPriority()));
+
+        UserPreferences preferences = message.getUserPreferences();
+        out.writeByte(preferences == null ? 0 : PREFERENCES_PRESENT
+                | (preferences.isEmail() ? PREFERENCE_EMAIL : 0)
+                | (preferences.isPush() ? PREFERENCE_PUSH : 0));
+
+        // An absent contact and a contact with neither field set both read back as no contact
+        UserContact contact = message.getUserContact();
+        out.writeValue(contact == null ? null : contact.getEmail());
+        out.writeValue(contact == null ? null : contact.getPushToken());
+
+        out.writeValue(message.getVariables());
+        out.writeValue(message.getMetadata());
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static NotificationMessage decode(byte[] bytes) {
+        Reader in = new Reader(bytes);
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported notification message version " + version);
+        }
+
+        NotificationMessage message = new NotificationMessage();
+        message.setNotificationId((String) in.readValue());
+        message.setRequestId((String) in.readValue());
+        message.setUserId((String) in.readValue());
+        message.setNotificationType((String) in.readValue());
+        message.setTemplateCode((String) in.readValue());
+        message.setCorrelationId((String) in.readValue());
+        message.setPriority(unzigzag(in.readVarint()));
+
+        int flags = in.readByte();
+        if ((flags & PREFERENCES_PRESENT) != 0) {
+            UserPreferences preferences = new UserPreferences();
+            preferences.setEmail((flags & PREFERENCE_EMAIL) != 0);
+            preferences.setPush((flags & PREFERENCE_PUSH) != 0);
+            message.setUserPreferences(preferences);
+        }
+
+        String email = (String) in.readValue();
+        String pushToken = (String) in.readValue();
+        if (email != null || pushToken != null) {
+            UserContact contact = new UserContact();
+            contact.setEmail(email);
+            contact.setPushToken(pushToken);
+            message.setUserContact(contact);
+        }
+
+        message.setVariables((Map<String, Object>) in.readValue());
+        message.setMetadata((Map<String, Object>) in.readValue());
+        return message;
+    }
+
+    // Claim-checked content: the variables and metadata maps on their own, as tagged values
+    public static byte[] encodeContent(Map<String, Object> variables, Map<String, Object> metadata) {
+        Writer out = new Writer();
+        out.writeByte(VERSION);
+        out.writeValue(variables);
+        out.writeValue(metadata);
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Content decodeContent(byte[] bytes) {
+        Reader in = new Reader(bytes);
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported notification content version " + version);
+        }
+        return new Content((Map<String, Object>) in.readValue(), (Map<String, Object>) in.readValue());
+    }
+
+    public record Content(Map<String, Object> variables, Map<String, Object> metadata) {}
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unzigzag(long value) {
+        return (int) ((value >>> 1) ^ -(value & 1));
+    }
+
+    private static final class Writer extends ByteArrayOutputStream {
+
+        Writer() {
+            super(256);
+        }
+
+        void writeByte(int value) {
+            write(value);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            write(utf8, 0, utf8.length);
+        }
+
+        void writeMap(Map<?, ?> map) {
+            writeVarint(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(String.valueOf(entry.getKey()));
+                writeValue(entry.getValue());
+            }
+        }
+
+        void writeValue(Object value) {
+            switch (value) {
+                case null -> write(TAG_NULL);
+                case String string -> {
+                    write(TAG_STRING);
+                    writeString(string);
+                }
+                case Integer number -> {
+                    write(TAG_INT);
+                    writeVarint(zigzag(number));
+                }
+                case Long number -> {
+                    write(TAG_LONG);
+                    writeVarint(zigzag(number));
+                }
+                case Double number -> {
+                    write(TAG_DOUBLE);
+                    long bits = Double.doubleToRawLongBits(number);
+                    for (int shift = 56; shift >= 0; shift -= 8) {
+                        write((int) (bits >>> shift));
+                    }
+                }
+                case Boolean bool -> write(bool ? TAG_TRUE : TAG_FALSE);
+                case Map<?, ?> map -> {
+                    write(TAG_MAP);
+                    writeMap(map);
+                }
+                case List<?> list -> {
+                    write(TAG_LIST);
+                    writeVarint(list.size());
+                    list.forEach(this::writeValue);
+                }
+                default -> throw new IllegalArgumentException("No binary encoding for " + value.getClass().getName());
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte readByte() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("Truncated notification message");
+            }
+            return bytes[position++];
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in notification message");
+        }
+
+        String readString() {
+            int length = (int) readVarint();
+            if (length < 0 || length > bytes.length - position) {
+                throw new IllegalArgumentException("Truncated notification message");
+            }
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        Map<String, Object> readMap() {
+            int size = (int) readVarint();
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                map.put(readString(), readValue());
+            }
+            return map;
+        }
+
+        Object readValue() {
+            byte tag = readByte();
+            return switch (tag) {
+                case TAG_NULL -> null;
+                case TAG_STRING -> readString();
+                case TAG_INT -> unzigzag(readVarint());
+                case TAG_LONG -> {
+                    long value = readVarint();
+                    yield (value >>> 1) ^ -(value & 1);
+                }
+                case TAG_DOUBLE -> {
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | (readByte() & 0xFF);
+                    }
+                    yield Double.longBitsToDouble(bits);
+                }
+                case TAG_TRUE -> Boolean.TRUE;
+                case TAG_FALSE -> Boolean.FALSE;
+                case TAG_MAP -> readMap();
+                case TAG_LIST -> {
+                    int size = (int) readVarint();
+                    List<Object> list = new ArrayList<>(Math.min(size, 1024));
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    yield list;
+                }
+                default -> throw new IllegalArgumentException("Unknown value tag " + tag + " in notification message");
+            };
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package dev.slethware.pushnotifications.util;
+
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+// Reads push messages in either format, by content type: the binary NotificationMessageCodec layout the
+// gateway publishes, or JSON from older gateways and anything else. Retries and parked messages are
+// written back in the configured format.
+@Slf4j
+public class NotificationMessageConverter implements MessageConverter {
+
+    private final MessageConverter jsonConverter;
+    private final boolean binary;
+
+    public NotificationMessageConverter(MessageConverter jsonConverter, boolean binary) {
+        this.jsonConverter = jsonConverter;
+        this.binary = binary;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) {
+        if (binary && object instanceof NotificationMessage message) {
+            try {
+                byte[] body = NotificationMessageCodec.encode(message);
+                messageProperties.setContentType(NotificationMessageCodec.CONTENT_TYPE);
+                messageProperties.setContentLength(body.length);
+                return new Message(body, messageProperties);
+            } catch (IllegalArgumentException e) {
+                // A variable of a type the codec does not know; JSON can still carry it
+                log.debug("[{}] Publishing notification {} as JSON: {}",
+                        message.getCorrelationId(), message.getNotificationId(), e.getMessage());
+            }
+        }
+        return jsonConverter.toMessage(object, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        if (NotificationMessageCodec.CONTENT_TYPE.equals(message.getMessageProperties().getContentType())) {
+            try {
+                return NotificationMessageCodec.decode(message.getBody());
+            } catch (RuntimeException e) {
+                throw new MessageConversionException("Failed to decode binary notification message", e);
+            }
+        }
+        return jsonConverter.fromMessage(message);
+    }
+}
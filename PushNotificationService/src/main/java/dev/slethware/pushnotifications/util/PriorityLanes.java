@@ -0,0 +1,75 @@
+package dev.slethware.pushnotifications.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Push traffic is split by NotificationMessage.priority into three queues, each with its own consumers,
+// so a 2FA code never waits behind a marketing campaign. The gateway applies the same thresholds when publishing.
+// With rabbitmq.push.shards set, the normal lane is the sharded one (push.sharded exchange, push.queue.shard.N).
+@Component
+public class PriorityLanes {
+
+    public enum Lane {
+        HIGH,
+        NORMAL,
+        BULK
+    }
+
+    private final int highThreshold;
+    private final int bulkThreshold;
+    private final String highRoutingKey;
+    private final String normalRoutingKey;
+    private final String bulkRoutingKey;
+    private final String retryQueuePrefix;
+    private final boolean sharded;
+    private final String shardedRoutingKey;
+
+    public PriorityLanes(@Value("${rabbitmq.priority.high-threshold}") int highThreshold,
+                         @Value("${rabbitmq.priority.bulk-threshold}") int bulkThreshold,
+                         @Value("${rabbitmq.routing-key.push-high}") String highRoutingKey,
+                         @Value("${rabbitmq.routing-key.push}") String normalRoutingKey,
+                         @Value("${rabbitmq.routing-key.push-bulk}") String bulkRoutingKey,
+                         @Value("${rabbitmq.queue.retry-prefix}") String retryQueuePrefix,
+                         @Value("${rabbitmq.push.shards}") int shards,
+                         @Value("${rabbitmq.routing-key.push-sharded}") String shardedRoutingKey) {
+        if (bulkThreshold >= highThreshold) {
+            throw new IllegalArgumentException("rabbitmq.priority.bulk-threshold must be below high-threshold");
+        }
+        this.highThreshold = highThreshold;
+        this.bulkThreshold = bulkThreshold;
+        this.highRoutingKey = highRoutingKey;
+        this.normalRoutingKey = normalRoutingKey;
+        this.bulkRoutingKey = bulkRoutingKey;
+        this.retryQueuePrefix = retryQueuePrefix;
+        this.sharded = shards > 0;
+        this.shardedRoutingKey = shardedRoutingKey;
+    }
+
+    public Lane laneFor(int priority) {
+        if (priority >= highThreshold) {
+            return Lane.HIGH;
+        }
+        if (priority <= bulkThreshold) {
+            return Lane.BULK;
+        }
+        return Lane.NORMAL;
+    }
+
+    public String routingKey(Lane lane) {
+        return switch (lane) {
+            case HIGH -> highRoutingKey;
+            case NORMAL -> sharded ? shardedRoutingKey : normalRoutingKey;
+            case BULK -> bulkRoutingKey;
+        };
+    }
+
+    // Each lane retries through its own delay queues, so a retried 2FA push comes back to the high lane.
+    // The normal lane keeps the original names (push.retry.2s), the others get push.retry.high.2s and so on.
+    // Sharded retries dead-letter somewhere else, so they get their own push.retry.sharded.2s queues.
+    public String retryQueuePrefix(Lane lane) {
+        if (lane == Lane.NORMAL) {
+            return sharded ? retryQueuePrefix + "sharded." : retryQueuePrefix;
+        }
+        return retryQueuePrefix + lane.name().toLowerCase() + ".";
+    }
+}
@@ -3,6 +3,9 @@ package dev.slethware.pushnotifications.util;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.stream.IntStream;
+
 @Component
 public class RetryUtil {
 
@@ -21,4 +24,17 @@ public class RetryUtil {
         long delay = baseDelay * (long) Math.pow(2, retryCount);
         return Math.min(delay, maxDelay);
     }
+
+    // Distinct delays needed to retry up to maxAttempts times, shortest first (2s, 4s, ... capped at max).
+    public List<Long> retryDelays(int maxAttempts) {
+        return IntStream.range(0, Math.max(0, maxAttempts - 1))
+                .mapToObj(this::calculateBackoff)
+                .distinct()
+                .toList();
+    }
+
+    // Name of the delay queue for a backoff, e.g. push.retry.4s
+    public static String retryQueueName(String prefix, long delayMs) {
+        return delayMs % 1000 == 0 ? prefix + (delayMs / 1000) + "s" : prefix + delayMs + "ms";
+    }
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+package dev.slethware.pushnotifications.consumer;
+
+import dev.slethware.pushnotifications.service.FirebaseService;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.DirectFieldAccessor;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CircuitBreakerConsumerGateTest {
+
+    private CircuitBreakerConsumerGate gate;
+
+    @AfterEach
+    void shutdown() {
+        if (gate != null) {
+            gate.shutdown();
+        }
+    }
+
+    // Nothing calls FCM while the containers are stopped, so the breaker has to leave OPEN
+    // either by itself or through the gate
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void pausesProbesAndRampsBackWithTheContainersStopped(boolean automaticTransition) throws InterruptedException {
+        CircuitBreakerRegistry circuitBreakers = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .waitDurationInOpenState(Duration.ofMillis(100))
+                .permittedNumberOfCallsInHalfOpenState(2)
+                .automaticTransitionFromOpenToHalfOpenEnabled(automaticTransition)
+                .build());
+        CircuitBreaker breaker = circuitBreakers.circuitBreaker(FirebaseService.FIREBASE_CIRCUIT_BREAKER);
+
+        FakeContainer container = new FakeContainer();
+        container.setMaxConcurrentConsumers(8);
+        container.setConcurrentConsumers(4);
+        container.setPrefetchCount(50);
+        container.start();
+
+        RabbitListenerEndpointRegistry listeners = mock(RabbitListenerEndpointRegistry.class);
+        when(listeners.getListenerContainerIds()).thenReturn(Set.of("push"));
+        when(listeners.getListenerContainer("push")).thenReturn(container);
+
+        gate = new CircuitBreakerConsumerGate(listeners, circuitBreakers, new InFlightDeliveries(), 1, 5,
+                Duration.ofMillis(10), Duration.ofSeconds(1));
+        gate.subscribe();
+
+        // OPEN: every container stops
+        breaker.transitionToOpenState();
+        awaitTrue(() -> !container.isRunning());
+        assertThat(gate.isThrottled()).isTrue();
+
+        // HALF_OPEN after the wait, without a single call: containers come back small
+        awaitTrue(() -> breaker.getState() == CircuitBreaker.State.HALF_OPEN && container.isRunning());
+        assertThat(sizing(container)).containsExactly(1, 1, 5);
+        assertThat(gate.isThrottled()).isTrue();
+
+        // CLOSED once the probes succeed: containers ramp back to their original size
+        breaker.executeRunnable(() -> {});
+        breaker.executeRunnable(() -> {});
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        awaitTrue(() -> !gate.isThrottled());
+        assertThat(container.isRunning()).isTrue();
+        assertThat(sizing(container)).containsExactly(4, 8, 50);
+    }
+
+    // Stopping closes the channel the async acks go out on, so the containers wait for those to settle first
+    @Test
+    void stopsOnlyOnceInFlightDeliveriesAreSettled() throws InterruptedException {
+        CircuitBreakerRegistry circuitBreakers = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .waitDurationInOpenState(Duration.ofMinutes(1))
+                .build());
+        CircuitBreaker breaker = circuitBreakers.circuitBreaker(FirebaseService.FIREBASE_CIRCUIT_BREAKER);
+        FakeContainer container = new FakeContainer();
+        container.start();
+        RabbitListenerEndpointRegistry listeners = mock(RabbitListenerEndpointRegistry.class);
+        when(listeners.getListenerContainerIds()).thenReturn(Set.of("push"));
+        when(listeners.getListenerContainer("push")).thenReturn(container);
+
+        InFlightDeliveries inFlight = new InFlightDeliveries();
+        gate = new CircuitBreakerConsumerGate(listeners, circuitBreakers, inFlight, 1, 5,
+                Duration.ofMillis(10), Duration.ofSeconds(5));
+        gate.subscribe();
+
+        inFlight.started();
+        breaker.transitionToOpenState();
+        Thread.sleep(100);
+        assertThat(container.isRunning()).isTrue();
+
+        inFlight.settled();
+        awaitTrue(() -> !container.isRunning());
+    }
+
+    private static int[] sizing(SimpleMessageListenerContainer container) {
+        DirectFieldAccessor fields = new DirectFieldAccessor(container);
+        return new int[] {
+                (Integer) fields.getPropertyValue("concurrentConsumers"),
+                (Integer) fields.getPropertyValue("maxConcurrentConsumers"),
+                (Integer) fields.getPropertyValue("prefetchCount")
+        };
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    // Records start and stop without connecting to a broker
+    private static class FakeContainer extends SimpleMessageListenerContainer {
+
+        @Override
+        public void start() {
+            new DirectFieldAccessor(this).setPropertyValue("running", true);
+        }
+
+        @Override
+        public void stop() {
+            new DirectFieldAccessor(this).setPropertyValue("running", false);
+        }
+    }
+}
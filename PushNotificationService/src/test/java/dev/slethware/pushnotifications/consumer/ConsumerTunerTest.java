@@ -0,0 +1,94 @@
+package dev.slethware.pushnotifications.consumer;
+
+import dev.slethware.pushnotifications.service.FcmBatchSender;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.DirectFieldAccessor;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ConsumerTunerTest {
+
+    private final RabbitListenerEndpointRegistry listeners = mock(RabbitListenerEndpointRegistry.class);
+    private final CircuitBreakerConsumerGate consumerGate = mock(CircuitBreakerConsumerGate.class);
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountingContainer container = new CountingContainer();
+    private ConsumerTuner tuner;
+
+    @BeforeEach
+    void setUp() {
+        container.setQueueNames("push.queue");
+        container.start();
+        when(listeners.getListenerContainers()).thenReturn(List.of(container));
+        tuner = new ConsumerTuner(listeners, consumerGate, mock(AmqpAdmin.class), meterRegistry,
+                1, 10, 2, 1, 250, Duration.ofMillis(500), 0.1, 50, "push.queue.high", "push.queue.shard.");
+    }
+
+    // A running consumer keeps the prefetch it started with, so a smaller one only holds after a restart
+    @Test
+    void backOffRestartsTheConsumersWithTheSmallerPrefetch() {
+        slowFcm();
+
+        tuner.adjust();
+
+        assertThat(new DirectFieldAccessor(container).getPropertyValue("prefetchCount")).isEqualTo(25);
+        assertThat(container.stops).isEqualTo(1);
+        assertThat(container.starts).isEqualTo(2);
+        assertThat(container.isRunning()).isTrue();
+        assertThat(tuner.snapshot().lanes().getFirst().prefetch()).isEqualTo(25);
+    }
+
+    @Test
+    void leavesAContainerTheGatePausedMeanwhileStopped() {
+        slowFcm();
+        when(consumerGate.isThrottled()).thenReturn(false, true);
+
+        tuner.adjust();
+
+        assertThat(container.stops).isEqualTo(1);
+        assertThat(container.isRunning()).isFalse();
+    }
+
+    @Test
+    void concurrencyOnlyChangesDoNotRestart() {
+        // Healthy and idle: one consumer fewer, same prefetch
+        tuner.adjust();
+
+        assertThat(container.stops).isZero();
+        assertThat(container.starts).isEqualTo(1);
+    }
+
+    private void slowFcm() {
+        Timer.builder(FcmBatchSender.SEND_TIMER).register(meterRegistry).record(Duration.ofSeconds(2));
+    }
+
+    // Counts start and stop without connecting to a broker
+    private static class CountingContainer extends SimpleMessageListenerContainer {
+
+        private int starts;
+        private int stops;
+
+        @Override
+        public void start() {
+            starts++;
+            new DirectFieldAccessor(this).setPropertyValue("running", true);
+        }
+
+        @Override
+        public void stop() {
+            stops++;
+            new DirectFieldAccessor(this).setPropertyValue("running", false);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package dev.slethware.pushnotifications.consumer;
+
+import dev.slethware.pushnotifications.consumer.PushMessageProcessor.Outcome;
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import dev.slethware.pushnotifications.exception.FirebaseUnavailableException;
+import dev.slethware.pushnotifications.service.PushNotificationService;
+import dev.slethware.pushnotifications.service.RetryPublisher;
+import dev.slethware.pushnotifications.service.StatusService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PushMessageProcessorTest {
+
+    private final PushNotificationService pushNotificationService = mock(PushNotificationService.class);
+    private final StatusService statusService = mock(StatusService.class);
+    private final RetryPublisher retryPublisher = mock(RetryPublisher.class);
+    private final PushMessageProcessor processor =
+            new PushMessageProcessor(pushNotificationService, statusService, retryPublisher);
+
+    private final NotificationMessage message = NotificationMessage.builder()
+            .notificationId("n-1")
+            .correlationId("corr-1")
+            .build();
+
+    @BeforeEach
+    void start() {
+        when(statusService.whenFlushed("n-1")).thenReturn(CompletableFuture.completedFuture(null));
+        ReflectionTestUtils.setField(processor, "maxRetries", 5);
+        ReflectionTestUtils.setField(processor, "publisherThreads", 1);
+        processor.start();
+    }
+
+    @AfterEach
+    void shutdown() {
+        processor.shutdown();
+    }
+
+    // The push is out already: sending it back would deliver it again, and the status write is retried anyway
+    @Test
+    void acksADeliveredMessageWhenItsStatusCannotBeWritten() throws Exception {
+        when(statusService.whenFlushed("n-1"))
+                .thenReturn(CompletableFuture.failedFuture(new QueryTimeoutException("redis down")));
+        when(pushNotificationService.sendPushNotificationAsync(message)).thenReturn(CompletableFuture.completedFuture(null));
+
+        assertThat(processor.process(message, 0)).isEqualTo(Outcome.ACK);
+        assertThat(processor.processAsync(message, 0).get(5, TimeUnit.SECONDS)).isEqualTo(Outcome.ACK);
+    }
+
+    // Requeueing would hand it straight back while the gate is still stopping the consumers
+    @Test
+    void defersInsteadOfRequeueingWhileTheBreakerIsOpen() throws Exception {
+        when(pushNotificationService.sendPushNotificationAsync(message)).thenReturn(CompletableFuture.failedFuture(
+                new FirebaseUnavailableException("Circuit breaker is open", null)));
+
+        assertThat(processor.processAsync(message, 2).get(5, TimeUnit.SECONDS)).isEqualTo(Outcome.ACK);
+        verify(retryPublisher).defer(eq(message), eq(2), anyString());
+        verify(retryPublisher, never()).scheduleRetry(any(), anyInt(), any());
+    }
+
+    @Test
+    void requeuesOnlyWhenTheDeferralCannotBePublished() throws Exception {
+        when(pushNotificationService.sendPushNotificationAsync(message)).thenReturn(CompletableFuture.failedFuture(
+                new FirebaseUnavailableException("Circuit breaker is open", null)));
+        doThrow(new AmqpException("broker down")).when(retryPublisher).defer(any(), anyInt(), any());
+
+        assertThat(processor.processAsync(message, 0).get(5, TimeUnit.SECONDS)).isEqualTo(Outcome.REQUEUE);
+    }
+}
@@ -0,0 +1,107 @@
+package dev.slethware.pushnotifications.service;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import dev.slethware.pushnotifications.consumer.CircuitBreakerConsumerGate;
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import dev.slethware.pushnotifications.service.FailedQueueReplayer.ReplayRequest;
+import dev.slethware.pushnotifications.service.FailedQueueReplayer.Snapshot;
+import dev.slethware.pushnotifications.service.FailedQueueReplayer.State;
+import dev.slethware.pushnotifications.util.NotificationMessageCodec;
+import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.core.ChannelCallback;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FailedQueueReplayerTest {
+
+    private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    private final AmqpAdmin amqpAdmin = mock(AmqpAdmin.class);
+    private final Channel channel = mock(Channel.class);
+    private FailedQueueReplayer replayer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        when(amqpAdmin.getQueueInfo("failed.queue")).thenReturn(new QueueInformation("failed.queue", 2, 0));
+        when(rabbitTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<ChannelCallback<?>>getArgument(0).doInRabbit(channel));
+        when(channel.basicGet("failed.queue", false)).thenReturn(delivery(1), delivery(2), null);
+
+        replayer = new FailedQueueReplayer(rabbitTemplate, amqpAdmin, mock(StatusService.class),
+                mock(CircuitBreakerConsumerGate.class), RateLimiterRegistry.ofDefaults(),
+                new Jackson2JsonMessageConverter(), "notifications.direct", "failed.queue", "push.bulk",
+                "push.queue.bulk", "email", "email.queue", 100, 10_000, Duration.ofSeconds(1));
+    }
+
+    @AfterEach
+    void shutdown() {
+        replayer.shutdown();
+    }
+
+    @Test
+    void acksTheChunkOnceItsRepublishesAreConfirmed() throws Exception {
+        Snapshot result = runToCompletion();
+
+        assertThat(result.state()).isEqualTo(State.COMPLETED);
+        assertThat(result.replayed()).isEqualTo(2);
+        verify(channel).basicAck(2, true);
+        verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+    }
+
+    // Left unacked on a cached channel, the deliveries would stay invisible in failed.queue
+    @Test
+    void nacksTheChunkBackWhenARepublishFails() throws Exception {
+        doThrow(new IOException("channel error")).when(channel)
+                .basicPublish(eq("notifications.direct"), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+
+        Snapshot result = runToCompletion();
+
+        assertThat(result.state()).isEqualTo(State.FAILED);
+        verify(channel).basicNack(1, true, true);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    }
+
+    private Snapshot runToCompletion() throws InterruptedException {
+        replayer.start(new ReplayRequest("PUSH", null, null, null, null), null);
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (replayer.snapshot().state() == State.RUNNING) {
+            assertThat(System.currentTimeMillis()).as("replay did not finish in time").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+        return replayer.snapshot();
+    }
+
+    private static GetResponse delivery(long deliveryTag) {
+        NotificationMessage message = NotificationMessage.builder()
+                .notificationId("n-" + deliveryTag)
+                .notificationType("PUSH")
+                .build();
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                .contentType(NotificationMessageCodec.CONTENT_TYPE)
+                .build();
+        return new GetResponse(new Envelope(deliveryTag, false, "", "failed.queue"), properties,
+                NotificationMessageCodec.encode(message), 0);
+    }
+}
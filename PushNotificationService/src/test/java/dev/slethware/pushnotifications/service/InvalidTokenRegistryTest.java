@@ -0,0 +1,78 @@
+package dev.slethware.pushnotifications.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InvalidTokenRegistryTest {
+
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ZSetOperations<String, Object> zSet = mock(ZSetOperations.class);
+    private final InvalidTokenRegistry registry = new InvalidTokenRegistry(redisTemplate, Duration.ofDays(30));
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSet);
+        // Every filter hit is confirmed as a live entry
+        when(zSet.score(anyString(), anyString())).thenReturn((double) Long.MAX_VALUE);
+    }
+
+    @AfterEach
+    void shutdown() {
+        registry.shutdown();
+    }
+
+    @Test
+    void markingDoesNotWaitForRedis() throws InterruptedException {
+        CountDownLatch redisStalled = new CountDownLatch(1);
+        when(zSet.add(anyString(), any(), anyDouble())).thenAnswer(invocation -> {
+            redisStalled.await(5, TimeUnit.SECONDS);
+            return true;
+        });
+
+        registry.markInvalid("token-a");
+
+        assertThat(registry.isKnownInvalid("token-a")).isTrue();
+        redisStalled.countDown();
+        verify(zSet, timeout(5_000)).add(eq("push:invalid-tokens"), anyString(), anyDouble());
+    }
+
+    @Test
+    void rebuildKeepsMarksItsScanCouldNotSee() {
+        @SuppressWarnings("unchecked")
+        Cursor<ZSetOperations.TypedTuple<Object>> cursor = mock(Cursor.class);
+        when(zSet.scan(anyString(), any())).thenReturn(cursor);
+        // Neither mark has reached Redis by the time the scan runs; the second one is made during it
+        registry.markInvalid("before-rebuild");
+        doAnswer(invocation -> {
+            registry.markInvalid("during-rebuild");
+            return null;
+        }).when(cursor).forEachRemaining(any());
+
+        registry.refresh();
+
+        assertThat(registry.isKnownInvalid("before-rebuild")).isTrue();
+        assertThat(registry.isKnownInvalid("during-rebuild")).isTrue();
+        assertThat(registry.isKnownInvalid("never-marked")).isFalse();
+    }
+}
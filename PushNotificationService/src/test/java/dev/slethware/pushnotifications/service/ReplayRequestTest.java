@@ -0,0 +1,66 @@
+package dev.slethware.pushnotifications.service;
+
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import dev.slethware.pushnotifications.service.FailedQueueReplayer.ReplayRequest;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplayRequestTest {
+
+    private static final Instant FAILED_AT = Instant.parse("2026-03-01T12:00:00Z");
+
+    @Test
+    void emptyRequestMatchesEverything() {
+        ReplayRequest request = new ReplayRequest(null, null, null, null, null);
+
+        assertThat(request.matches(push(), FAILED_AT, "UNAVAILABLE")).isTrue();
+        assertThat(request.matches(push(), null, null)).isTrue();
+    }
+
+    @Test
+    void typeIsCaseInsensitive() {
+        assertThat(new ReplayRequest("push", null, null, null, null).matches(push(), FAILED_AT, null)).isTrue();
+        assertThat(new ReplayRequest("EMAIL", null, null, null, null).matches(push(), FAILED_AT, null)).isFalse();
+    }
+
+    @Test
+    void reasonIsACaseInsensitiveSubstring() {
+        ReplayRequest request = new ReplayRequest(null, "unavailable", null, null, null);
+
+        assertThat(request.matches(push(), FAILED_AT, "Firebase error: UNAVAILABLE (503)")).isTrue();
+        assertThat(request.matches(push(), FAILED_AT, "rejected")).isFalse();
+        assertThat(request.matches(push(), FAILED_AT, null)).isFalse();
+    }
+
+    @Test
+    void failedAfterIsInclusiveAndFailedBeforeExclusive() {
+        ReplayRequest request = new ReplayRequest(null, null, FAILED_AT, FAILED_AT.plusSeconds(60), null);
+
+        assertThat(request.matches(push(), FAILED_AT, null)).isTrue();
+        assertThat(request.matches(push(), FAILED_AT.plusSeconds(59), null)).isTrue();
+        assertThat(request.matches(push(), FAILED_AT.minusMillis(1), null)).isFalse();
+        assertThat(request.matches(push(), FAILED_AT.plusSeconds(60), null)).isFalse();
+    }
+
+    @Test
+    void unknownFailureTimeNeverMatchesATimeWindow() {
+        assertThat(new ReplayRequest(null, null, FAILED_AT, null, null).matches(push(), null, null)).isFalse();
+        assertThat(new ReplayRequest(null, null, null, FAILED_AT, null).matches(push(), null, null)).isFalse();
+    }
+
+    @Test
+    void everyFilterMustMatch() {
+        ReplayRequest request = new ReplayRequest("PUSH", "unavailable", FAILED_AT.minusSeconds(60), null, null);
+
+        assertThat(request.matches(push(), FAILED_AT, "UNAVAILABLE")).isTrue();
+        assertThat(request.matches(push(), FAILED_AT, "INTERNAL")).isFalse();
+        assertThat(request.matches(push(), FAILED_AT.minusSeconds(120), "UNAVAILABLE")).isFalse();
+    }
+
+    private static NotificationMessage push() {
+        return NotificationMessage.builder().notificationId("n-1").notificationType("PUSH").build();
+    }
+}
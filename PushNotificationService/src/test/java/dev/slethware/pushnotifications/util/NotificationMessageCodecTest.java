@@ -0,0 +1,113 @@
+package dev.slethware.pushnotifications.util;
+
+import dev.slethware.pushnotifications.dto.NotificationMessage;
+import dev.slethware.pushnotifications.dto.UserContact;
+import dev.slethware.pushnotifications.dto.UserPreferences;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NotificationMessageCodecTest {
+
+    // Written by the gateway's codec (its test checks the same bytes), so a layout change on one side fails the build
+    private static final String GOLDEN_HEX = ""
+            + "01"                                            // version
+            + "01036e2d31"                                    // notification_id "n-1"
+            + "01057265712d31"                                // request_id "req-1"
+            + "0106757365722d31"                              // user_id "user-1"
+            + "010450555348"                                  // notification_type "PUSH"
+            + "010777656c636f6d65"                            // template_code "welcome"
+            + "0106636f72722d31"                              // correlation_id "corr-1"
+            + "03"                                            // priority -2, zigzag
+            + "07"                                            // preferences present, email, push
+            + "010d61406578616d706c652e636f6d"                // contact email "a@example.com"
+            + "0105746f6b656e"                                // contact push_token "token"
+            + "0702046e616d65010341646105636f756e740254"      // variables {name: "Ada", count: 42}
+            + "07010863616d706169676e0106737072696e67";       // metadata {campaign: "spring"}
+
+    @Test
+    void decodesWhatTheGatewayWrites() {
+        assertThat(NotificationMessageCodec.decode(HexFormat.of().parseHex(GOLDEN_HEX))).isEqualTo(goldenMessage());
+    }
+
+    @Test
+    void writesTheSameLayoutForRetries() {
+        assertThat(HexFormat.of().formatHex(NotificationMessageCodec.encode(goldenMessage()))).isEqualTo(GOLDEN_HEX);
+    }
+
+    @Test
+    void roundTripsNestedAndNumericValues() {
+        Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("int", Integer.MIN_VALUE);
+        variables.put("long", Long.MAX_VALUE);
+        variables.put("double", -0.5);
+        variables.put("flag", true);
+        variables.put("missing", null);
+        variables.put("list", List.of("a", List.of(1, 2)));
+        variables.put("map", Map.of("inner", "ü€😀"));
+        NotificationMessage message = goldenMessage();
+        message.setVariables(variables);
+
+        NotificationMessage decoded = NotificationMessageCodec.decode(NotificationMessageCodec.encode(message));
+
+        assertThat(decoded).isEqualTo(message);
+        assertThat(decoded.getVariables()).containsExactlyEntriesOf(variables);
+    }
+
+    @Test
+    void keepsAbsentFieldsAbsent() {
+        NotificationMessage message = NotificationMessage.builder().notificationId("n-1").build();
+
+        assertThat(NotificationMessageCodec.decode(NotificationMessageCodec.encode(message))).isEqualTo(message);
+    }
+
+    @Test
+    void rejectsTruncatedInput() {
+        byte[] encoded = HexFormat.of().parseHex(GOLDEN_HEX);
+
+        assertThatThrownBy(() -> NotificationMessageCodec.decode(Arrays.copyOf(encoded, encoded.length - 1)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void roundTripsClaimCheckedContent() {
+        Map<String, Object> variables = Map.of("body", "x".repeat(10_000));
+
+        NotificationMessageCodec.Content content =
+                NotificationMessageCodec.decodeContent(NotificationMessageCodec.encodeContent(variables, null));
+
+        assertThat(content.variables()).isEqualTo(variables);
+        assertThat(content.metadata()).isNull();
+    }
+
+    private static NotificationMessage goldenMessage() {
+        UserPreferences preferences = new UserPreferences();
+        UserContact contact = new UserContact();
+        contact.setEmail("a@example.com");
+        contact.setPushToken("token");
+
+        Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("name", "Ada");
+        variables.put("count", 42);
+        return NotificationMessage.builder()
+                .notificationId("n-1")
+                .requestId("req-1")
+                .userId("user-1")
+                .notificationType("PUSH")
+                .templateCode("welcome")
+                .correlationId("corr-1")
+                .priority(-2)
+                .userPreferences(preferences)
+                .userContact(contact)
+                .variables(variables)
+                .metadata(Map.of("campaign", "spring"))
+                .build();
+    }
+}
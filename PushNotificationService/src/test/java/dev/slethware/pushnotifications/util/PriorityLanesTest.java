@@ -0,0 +1,59 @@
+package dev.slethware.pushnotifications.util;
+
+import dev.slethware.pushnotifications.util.PriorityLanes.Lane;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PriorityLanesTest {
+
+    @Test
+    void laneFollowsThresholds() {
+        PriorityLanes lanes = lanes(0);
+
+        assertThat(lanes.laneFor(5)).isEqualTo(Lane.HIGH);
+        assertThat(lanes.laneFor(2)).isEqualTo(Lane.HIGH);
+        assertThat(lanes.laneFor(1)).isEqualTo(Lane.NORMAL);
+        assertThat(lanes.laneFor(0)).isEqualTo(Lane.BULK);
+        assertThat(lanes.laneFor(-3)).isEqualTo(Lane.BULK);
+    }
+
+    @Test
+    void unshardedLanesRouteToTheirOwnQueues() {
+        PriorityLanes lanes = lanes(0);
+
+        assertThat(lanes.routingKey(Lane.HIGH)).isEqualTo("push.high");
+        assertThat(lanes.routingKey(Lane.NORMAL)).isEqualTo("push");
+        assertThat(lanes.routingKey(Lane.BULK)).isEqualTo("push.bulk");
+    }
+
+    @Test
+    void shardedNormalLaneRoutesThroughTheShardExchange() {
+        PriorityLanes lanes = lanes(4);
+
+        assertThat(lanes.routingKey(Lane.NORMAL)).isEqualTo("push.sharded");
+        assertThat(lanes.routingKey(Lane.HIGH)).isEqualTo("push.high");
+        assertThat(lanes.routingKey(Lane.BULK)).isEqualTo("push.bulk");
+    }
+
+    @Test
+    void eachLaneRetriesThroughItsOwnDelayQueues() {
+        PriorityLanes lanes = lanes(0);
+
+        assertThat(lanes.retryQueuePrefix(Lane.NORMAL)).isEqualTo("push.retry.");
+        assertThat(lanes.retryQueuePrefix(Lane.HIGH)).isEqualTo("push.retry.high.");
+        assertThat(lanes.retryQueuePrefix(Lane.BULK)).isEqualTo("push.retry.bulk.");
+        assertThat(lanes(4).retryQueuePrefix(Lane.NORMAL)).isEqualTo("push.retry.sharded.");
+    }
+
+    @Test
+    void rejectsOverlappingThresholds() {
+        assertThatThrownBy(() -> new PriorityLanes(1, 1, "push.high", "push", "push.bulk", "push.retry.", 0, "push.sharded"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static PriorityLanes lanes(int shards) {
+        return new PriorityLanes(2, 0, "push.high", "push", "push.bulk", "push.retry.", shards, "push.sharded");
+    }
+}